@@ -0,0 +1,22 @@
+package com.example.fixture;
+
+import com.example.fixture.model.Cart;
+import com.example.fixture.model.Item;
+import com.example.fixture.util.Strings;
+import com.example.fixture.widgets.Widgets;
+
+/**
+ * Entrypoint of the benchmark fixture, started from App.native.js.
+ */
+public class App {
+
+    public static void start() {
+        Cart cart = new Cart();
+        cart.add(new Item("apple", 3, 25));
+        cart.add(new Item("pear", 1, 40));
+        log(Strings.join(", ", cart.describe()) + " = " + cart.total());
+        log(Widgets.renderAll());
+    }
+
+    private static native void log(String message);
+}
@@ -0,0 +1,10 @@
+/**
+ * @param {?string} message
+ */
+App.m_log__java_lang_String = function(message) {
+  console.log(message);
+};
+
+setTimeout(function() {
+  App.m_start__();
+}, 0);
@@ -0,0 +1,28 @@
+package com.example.fixture.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Cart {
+    private final List<Item> items = new ArrayList<>();
+
+    public void add(Item item) {
+        items.add(item);
+    }
+
+    public List<String> describe() {
+        List<String> descriptions = new ArrayList<>();
+        for (Item item : items) {
+            descriptions.add(item.getQuantity() + "x " + item.getName());
+        }
+        return descriptions;
+    }
+
+    public int total() {
+        int total = 0;
+        for (Item item : items) {
+            total += item.total();
+        }
+        return total;
+    }
+}
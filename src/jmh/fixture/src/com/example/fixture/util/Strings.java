@@ -0,0 +1,19 @@
+package com.example.fixture.util;
+
+import java.util.List;
+
+public class Strings {
+    private Strings() {
+    }
+
+    public static String join(String separator, List<String> parts) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : parts) {
+            if (sb.length() > 0) {
+                sb.append(separator);
+            }
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+}
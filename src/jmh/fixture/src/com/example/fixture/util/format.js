@@ -0,0 +1,12 @@
+goog.module('fixture.format');
+
+/**
+ * Plain js in the source tree, copied as-is to the output.
+ * @param {number} cents
+ * @return {string}
+ */
+function formatCents(cents) {
+  return (cents / 100).toFixed(2);
+}
+
+exports.formatCents = formatCents;
@@ -0,0 +1,167 @@
+package com.vertispan.j2cl.benchmark;
+
+import com.google.j2cl.frontend.FrontendUtils;
+import com.vertispan.j2cl.Gwt3Options;
+import com.vertispan.j2cl.Gwt3OptionsImplBuilder;
+import com.vertispan.j2cl.tools.GwtIncompatiblePreprocessor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A copy of the checked-in fixture project in a temp directory, with the widget template expanded into
+ * {@link #WIDGETS} numbered classes so that wide edits have enough files to touch. The widgets don't refer to
+ * each other, only a generated Widgets class refers to them all, so editing one widget is a single file edit.
+ * <p>
+ * The j2cl jars to build against are read from system properties named after the matching command line
+ * options, each a path separated list:
+ * <ul>
+ *     <li>j2cl.classpath - java classpath, should contain at least the jre jar</li>
+ *     <li>j2cl.jsClasspath - js classpath, should contain at least bootstrap.js.zip and jre.js.zip</li>
+ *     <li>j2cl.javacBootClasspath - the javac-bootstrap-classpath jar</li>
+ * </ul>
+ * The fixture itself is read from j2cl.fixture, defaulting to src/jmh/fixture in the working directory.
+ */
+public class FixtureProject implements Closeable {
+    public static final int WIDGETS = 120;
+
+    private static final String WIDGETS_PACKAGE = "com/example/fixture/widgets";
+
+    private final Path root;
+    private final Path sourceDir;
+    private final String template;
+    private int revision;
+
+    public FixtureProject() throws IOException {
+        Path fixture = Paths.get(System.getProperty("j2cl.fixture", "src/jmh/fixture"));
+        if (!Files.isDirectory(fixture)) {
+            throw new IllegalStateException("Fixture project not found at " + fixture.toAbsolutePath() + ", set j2cl.fixture");
+        }
+        root = Files.createTempDirectory("j2cl-benchmark");
+        sourceDir = root.resolve("src");
+        copy(fixture.resolve("src"), sourceDir);
+        template = new String(Files.readAllBytes(fixture.resolve("Widget.java.template")), StandardCharsets.UTF_8);
+
+        Files.createDirectories(sourceDir.resolve(WIDGETS_PACKAGE));
+        StringBuilder widgets = new StringBuilder("package com.example.fixture.widgets;\n\n" +
+                "public class Widgets {\n" +
+                "    public static String renderAll() {\n" +
+                "        return \"\"");
+        for (int i = 0; i < WIDGETS; i++) {
+            writeWidget(i);
+            widgets.append("\n                + new ").append(widgetName(i)).append("().render()");
+        }
+        widgets.append(";\n" +
+                "    }\n" +
+                "}\n");
+        Files.write(sourceDir.resolve(WIDGETS_PACKAGE).resolve("Widgets.java"), widgets.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates options to build the fixture with, all output going to directories in the fixture's temp dir.
+     */
+    public Gwt3Options createOptions() throws IOException {
+        Path jsZipCache = Files.createDirectories(root.resolve("jszip-cache"));
+        return new Gwt3OptionsImplBuilder()
+                .setSourceDir(new ArrayList<>(Collections.singletonList(sourceDir.toString())))
+                .setBytecodeClasspath(pathList("j2cl.classpath"))
+                .setJ2clClasspath(pathList("j2cl.jsClasspath"))
+                .setJavacBootClasspath(requiredProperty("j2cl.javacBootClasspath"))
+                .setOutputJsPathDir(root.resolve("out").toString())
+                .setClassesDir(root.resolve("classes").toString())
+                .setJsZipCacheDir(jsZipCache.toString())
+                .setEntrypoint(new ArrayList<>(Collections.singletonList("com.example.fixture.App")))
+                .createGwt3OptionsImpl();
+    }
+
+    /**
+     * Returns every java file in the fixture, as for the first compile after setup.
+     */
+    public List<FrontendUtils.FileInfo> allJavaFiles() throws IOException {
+        try (Stream<Path> paths = Files.walk(sourceDir)) {
+            return paths.filter(path -> path.toString().endsWith(".java"))
+                    .map(FixtureProject::fileInfo)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Changes the body of the first count widgets, and returns the changed files.
+     */
+    public List<FrontendUtils.FileInfo> editWidgets(int count) throws IOException {
+        if (count > WIDGETS) {
+            throw new IllegalArgumentException("Only " + WIDGETS + " widgets to edit");
+        }
+        revision++;
+        List<FrontendUtils.FileInfo> edited = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            edited.add(fileInfo(writeWidget(i)));
+        }
+        return edited;
+    }
+
+    @Override
+    public void close() throws IOException {
+        GwtIncompatiblePreprocessor.deleteRecursively(root);
+    }
+
+    private Path writeWidget(int number) throws IOException {
+        String source = template
+                .replace("$NAME$", widgetName(number))
+                .replace("$NUMBER$", String.valueOf(number))
+                .replace("$REVISION$", String.valueOf(revision));
+        Path path = sourceDir.resolve(WIDGETS_PACKAGE).resolve(widgetName(number) + ".java");
+        Files.write(path, source.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static String widgetName(int number) {
+        return String.format("Widget%03d", number);
+    }
+
+    private static FrontendUtils.FileInfo fileInfo(Path path) {
+        return FrontendUtils.FileInfo.create(path.toString(), path.toString());
+    }
+
+    private static String requiredProperty(String name) {
+        String value = System.getProperty(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalStateException("System property " + name + " must be set");
+        }
+        return value;
+    }
+
+    private static List<String> pathList(String name) {
+        return new ArrayList<>(Arrays.asList(requiredProperty(name).split(File.pathSeparator)));
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        Files.walkFileTree(from, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(to.resolve(from.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, to.resolve(from.relativize(file).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
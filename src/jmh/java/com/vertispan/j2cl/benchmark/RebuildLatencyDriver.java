@@ -0,0 +1,194 @@
+package com.vertispan.j2cl.benchmark;
+
+import com.vertispan.j2cl.BuildMetrics;
+import com.vertispan.j2cl.FileSeparatorHandler;
+import com.vertispan.j2cl.Gwt3Options;
+import com.vertispan.j2cl.Gwt3OptionsImplBuilder;
+import com.vertispan.j2cl.ListeningCompiler;
+import com.vertispan.j2cl.SingleCompiler;
+import com.vertispan.j2cl.SourceWatcher;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Generates projects of increasing size, and for each one scripts a series of edits against the same watch
+ * and compile loop that {@link ListeningCompiler} runs, recording how long each edit takes to be rebuilt. The
+ * results are written as csv, one row per rebuild, and summarized per size at the end, so that rebuild time
+ * can be compared to project size.
+ * <p>
+ * Each edit is timed from just before the file is written until the compile finishes, so it includes the
+ * time for the change to be noticed.
+ */
+public class RebuildLatencyDriver extends SyntheticProjectGenerator {
+
+    @Option(name = "-sizes", usage = "comma separated number of classes in each generated project")
+    String sizes = "1000,10000,50000";
+
+    @Option(name = "-repeat", usage = "number of times to repeat each edit")
+    int repeat = 5;
+
+    @Option(name = "-csv", usage = "file to write each rebuild time to")
+    String csv = "rebuild-latency.csv";
+
+    @Option(name = "-classpath", usage = "java classpath, should contain at least the jre jar", required = true, handler = FileSeparatorHandler.class)
+    List<String> bytecodeClasspath;
+
+    @Option(name = "-jsClasspath", usage = "js classpath, should contain at least bootstrap.js.zip and jre.js.zip", required = true, handler = FileSeparatorHandler.class)
+    List<String> j2clClasspath;
+
+    @Option(name = "-javacBootClasspath", usage = "Path to the javac-bootstrap-classpath jar", required = true)
+    String javacBootClasspath;
+
+    private final Map<String, List<Long>> results = new LinkedHashMap<>();
+    private int revision;
+    private SingleCompiler compiler;
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        RebuildLatencyDriver driver = new RebuildLatencyDriver();
+        CmdLineParser parser = new CmdLineParser(driver);
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            e.printStackTrace();
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+        driver.run();
+    }
+
+    public void run() throws IOException, InterruptedException, ExecutionException {
+        Path root = Paths.get(out);
+        try (PrintWriter csvWriter = new PrintWriter(Files.newBufferedWriter(Paths.get(csv), StandardCharsets.UTF_8))) {
+            csvWriter.println("classes,edit,run,millis,javaFilesCompiled,success");
+            for (String size : sizes.split(",")) {
+                classes = Integer.parseInt(size.trim());
+                out = root.resolve("classes-" + classes).toString();
+                generate();
+                measure(csvWriter);
+                csvWriter.flush();
+            }
+        }
+        printSummary();
+    }
+
+    private void measure(PrintWriter csvWriter) throws IOException, InterruptedException, ExecutionException {
+        List<String> classpath = new ArrayList<>(bytecodeClasspath);
+        classpath.addAll(getLibraryJars());
+        Gwt3Options options = new Gwt3OptionsImplBuilder()
+                .setSourceDir(new ArrayList<>(Collections.singletonList(getSourceDir().toString())))
+                .setBytecodeClasspath(classpath)
+                .setJ2clClasspath(new ArrayList<>(j2clClasspath))
+                .setJavacBootClasspath(javacBootClasspath)
+                .setOutputJsPathDir(Paths.get(out, "out").toString())
+                .setClassesDir(Paths.get(out, "classes").toString())
+                .setJsZipCacheDir(Files.createDirectories(Paths.get(out, "jszip-cache")).toString())
+                .setEntrypoint(new ArrayList<>(Collections.singletonList(APP_CLASS)))
+                .createGwt3OptionsImpl();
+
+        long started = System.currentTimeMillis();
+        compiler = new SingleCompiler(options);
+        compiler.setup();
+        record(csvWriter, "setup", 0, System.currentTimeMillis() - started);
+
+        try (SourceWatcher watcher = new SourceWatcher(options.getSourceDir())) {
+            started = System.currentTimeMillis();
+            compiler.compile(ListeningCompiler.javaFiles(watcher.getFiles()));
+            record(csvWriter, "initial", 0, System.currentTimeMillis() - started);
+
+            int leaf = getClasses() - 1;
+            int hub = 0;
+            for (int run = 0; run < repeat; run++) {
+                started = System.currentTimeMillis();
+                editBody(leaf, ++revision);
+                rebuild(watcher);
+                record(csvWriter, "leafBody", run, System.currentTimeMillis() - started);
+
+                started = System.currentTimeMillis();
+                editBody(hub, ++revision);
+                rebuild(watcher);
+                record(csvWriter, "hubBody", run, System.currentTimeMillis() - started);
+
+                started = System.currentTimeMillis();
+                editSignature(getHubs() - 1, ++revision);
+                rebuild(watcher);
+                record(csvWriter, "hubSignature", run, System.currentTimeMillis() - started);
+
+                if (hasNativeJs(hub)) {
+                    started = System.currentTimeMillis();
+                    touch(nativeJsFile(hub), ++revision);
+                    rebuild(watcher);
+                    record(csvWriter, "nativeJs", run, System.currentTimeMillis() - started);
+                }
+
+                if (plainJs > 0) {
+                    started = System.currentTimeMillis();
+                    touch(plainJsFile(0), ++revision);
+                    rebuild(watcher);
+                    record(csvWriter, "plainJs", run, System.currentTimeMillis() - started);
+                }
+
+                started = System.currentTimeMillis();
+                Path added = addClass(++revision);
+                rebuild(watcher);
+                record(csvWriter, "addClass", run, System.currentTimeMillis() - started);
+
+                started = System.currentTimeMillis();
+                Files.delete(added);
+                rebuild(watcher);
+                record(csvWriter, "deleteClass", run, System.currentTimeMillis() - started);
+            }
+        }
+    }
+
+    /**
+     * Waits for the watcher to see the edit and the rest of its burst, with the same quiet period and max wait
+     * as ListeningCompiler, then compiles it as ListeningCompiler would, so the latency includes the debounce.
+     */
+    private void rebuild(SourceWatcher watcher) throws IOException, InterruptedException {
+        Gwt3Options options = compiler.getOptions();
+        SourceWatcher.Changes changes;
+        do {
+            changes = watcher.take(options.getQuietPeriod(), options.getMaxWait());
+        } while (changes.isEmpty());
+        compiler.compile(ListeningCompiler.javaFiles(changes), changes);
+    }
+
+    private void record(PrintWriter csvWriter, String edit, int run, long millis) {
+        BuildMetrics metrics = compiler.getLastMetrics();
+        long compiled = metrics == null ? 0 : metrics.getCounters().getOrDefault("javaFilesCompiled", 0L);
+        boolean success = metrics != null && metrics.isSuccess();
+        csvWriter.println(classes + "," + edit + "," + run + "," + millis + "," + compiled + "," + success);
+        results.computeIfAbsent(classes + "," + edit, ignore -> new ArrayList<>()).add(millis);
+    }
+
+    /**
+     * Prints the median time of each edit at each size, and how much it grew relative to the smallest size.
+     */
+    private void printSummary() {
+        Map<String, Long> smallest = new LinkedHashMap<>();
+        System.out.println(String.format("%10s %-14s %10s %8s", "classes", "edit", "median ms", "growth"));
+        for (Map.Entry<String, List<Long>> entry : results.entrySet()) {
+            String[] key = entry.getKey().split(",");
+            List<Long> times = new ArrayList<>(entry.getValue());
+            Collections.sort(times);
+            long median = times.get(times.size() / 2);
+            long baseline = smallest.computeIfAbsent(key[1], ignore -> median);
+            String growth = baseline == 0 ? "-" : String.format("%.2fx", (double) median / baseline);
+            System.out.println(String.format("%10s %-14s %10d %8s", key[0], key[1], median, growth));
+        }
+    }
+}
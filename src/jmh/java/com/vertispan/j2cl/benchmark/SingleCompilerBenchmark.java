@@ -0,0 +1,212 @@
+package com.vertispan.j2cl.benchmark;
+
+import com.google.j2cl.frontend.FrontendUtils;
+import com.vertispan.j2cl.BuildMetrics;
+import com.vertispan.j2cl.Gwt3Options;
+import com.vertispan.j2cl.SingleCompiler;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link SingleCompiler}, building the {@link FixtureProject}. Each benchmark creates its own
+ * compilers, but still runs in its own fork, so that it doesn't inherit the jit profile of another, or the jvm
+ * wide state some caches keep, such as the {@link com.vertispan.j2cl.JsZipCache} kept open for each directory.
+ * <p>
+ * Along with the time for each call, the time and bytes allocated in each phase of the build are reported as
+ * secondary results, summed over each iteration. Run with {@link #main(String[])} to also get the gc profiler,
+ * for the overall allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SingleCompilerBenchmark {
+
+    /**
+     * A fresh copy of the fixture for each invocation, with nothing cached yet.
+     */
+    @State(Scope.Thread)
+    public static class ColdProject {
+        FixtureProject project;
+        Gwt3Options options;
+
+        @Setup(Level.Invocation)
+        public void create() throws Exception {
+            project = new FixtureProject();
+            options = project.createOptions();
+        }
+
+        @TearDown(Level.Invocation)
+        public void delete() throws Exception {
+            project.close();
+        }
+    }
+
+    /**
+     * A copy of the fixture that has been set up and fully compiled once, for rebuilds.
+     */
+    @State(Scope.Benchmark)
+    public static class WarmProject {
+        FixtureProject project;
+        SingleCompiler compiler;
+
+        @Setup(Level.Trial)
+        public void create() throws Exception {
+            project = new FixtureProject();
+            compiler = new SingleCompiler(project.createOptions());
+            compiler.setup();
+            compiler.compile(project.allJavaFiles());
+            Phases.checkSuccess(compiler.getLastMetrics());
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws Exception {
+            project.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SingleEdit {
+        List<FrontendUtils.FileInfo> files;
+
+        @Setup(Level.Invocation)
+        public void edit(WarmProject warm) throws Exception {
+            files = warm.project.editWidgets(1);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class WideEdit {
+        List<FrontendUtils.FileInfo> files;
+
+        @Setup(Level.Invocation)
+        public void edit(WarmProject warm) throws Exception {
+            files = warm.project.editWidgets(100);
+        }
+    }
+
+    /**
+     * Time and allocation of each phase, read from the metrics of each build.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Phases {
+        public long dependenciesMillis;
+        public long pruneMillis;
+        public long scanMillis;
+        public long javacMillis;
+        public long copyJsMillis;
+        public long preprocessMillis;
+        public long j2clMillis;
+        public long jscompMillis;
+
+        public long dependenciesAllocatedBytes;
+        public long pruneAllocatedBytes;
+        public long scanAllocatedBytes;
+        public long javacAllocatedBytes;
+        public long copyJsAllocatedBytes;
+        public long preprocessAllocatedBytes;
+        public long j2clAllocatedBytes;
+        public long jscompAllocatedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            dependenciesMillis = pruneMillis = scanMillis = javacMillis = copyJsMillis = preprocessMillis = j2clMillis = jscompMillis = 0;
+            dependenciesAllocatedBytes = pruneAllocatedBytes = scanAllocatedBytes = javacAllocatedBytes = 0;
+            copyJsAllocatedBytes = preprocessAllocatedBytes = j2clAllocatedBytes = jscompAllocatedBytes = 0;
+        }
+
+        void record(BuildMetrics metrics) {
+            checkSuccess(metrics);
+            dependenciesMillis += metrics.getPhases().getOrDefault("dependencies", 0L);
+            pruneMillis += metrics.getPhases().getOrDefault("prune", 0L);
+            scanMillis += metrics.getPhases().getOrDefault("scan", 0L);
+            javacMillis += metrics.getPhases().getOrDefault("javac", 0L);
+            copyJsMillis += metrics.getPhases().getOrDefault("copyJs", 0L);
+            preprocessMillis += metrics.getPhases().getOrDefault("preprocess", 0L);
+            j2clMillis += metrics.getPhases().getOrDefault("j2cl", 0L);
+            jscompMillis += metrics.getPhases().getOrDefault("jscomp", 0L);
+
+            dependenciesAllocatedBytes += metrics.getAllocations().getOrDefault("dependencies", 0L);
+            pruneAllocatedBytes += metrics.getAllocations().getOrDefault("prune", 0L);
+            scanAllocatedBytes += metrics.getAllocations().getOrDefault("scan", 0L);
+            javacAllocatedBytes += metrics.getAllocations().getOrDefault("javac", 0L);
+            copyJsAllocatedBytes += metrics.getAllocations().getOrDefault("copyJs", 0L);
+            preprocessAllocatedBytes += metrics.getAllocations().getOrDefault("preprocess", 0L);
+            j2clAllocatedBytes += metrics.getAllocations().getOrDefault("j2cl", 0L);
+            jscompAllocatedBytes += metrics.getAllocations().getOrDefault("jscomp", 0L);
+        }
+
+        static void checkSuccess(BuildMetrics metrics) {
+            if (metrics == null || !metrics.isSuccess()) {
+                throw new IllegalStateException("Build failed, see log for details");
+            }
+        }
+    }
+
+    /**
+     * Setup with an empty jszip cache, followed by the first full compile.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public void coldSetup(ColdProject cold, Phases phases) throws Exception {
+        SingleCompiler compiler = new SingleCompiler(cold.options);
+        compiler.setup();
+        phases.record(compiler.getLastMetrics());
+        compiler.compile(cold.project.allJavaFiles());
+        phases.record(compiler.getLastMetrics());
+    }
+
+    @Benchmark
+    public void noOpRebuild(WarmProject warm, Phases phases) throws Exception {
+        warm.compiler.compile(new ArrayList<>());
+        phases.record(warm.compiler.getLastMetrics());
+    }
+
+    @Benchmark
+    public void singleFileEdit(WarmProject warm, SingleEdit edit, Phases phases) throws Exception {
+        warm.compiler.compile(edit.files);
+        phases.record(warm.compiler.getLastMetrics());
+    }
+
+    @Benchmark
+    public void wideEdit(WarmProject warm, WideEdit edit, Phases phases) throws Exception {
+        warm.compiler.compile(edit.files);
+        phases.record(warm.compiler.getLastMetrics());
+    }
+
+    /**
+     * Runs the benchmarks with the gc profiler. Any other JMH command line options can be passed as usual.
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(SingleCompilerBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,360 @@
+package com.vertispan.j2cl.benchmark;
+
+import com.vertispan.j2cl.tools.GwtIncompatiblePreprocessor;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a J2CL compatible project of a given shape, to measure how rebuilds scale with project size.
+ * <p>
+ * The project has numbered classes split across packages. Each class references fanOut earlier classes,
+ * some of them among the first few "hub" classes, so that hubs have a high fan-in. Every so often a class also
+ * has a native method with a .native.js companion. Plain js files are written alongside, and optionally a few
+ * library jars holding both sources and bytecode, like the source jars on a real classpath, which the first
+ * class of each package references.
+ * <p>
+ * Everything is generated from the seed, so the same options always produce the same project.
+ */
+public class SyntheticProjectGenerator {
+    public static final String APP_CLASS = "gen.App";
+
+    // written into each generated project, so only a directory that holds one is ever deleted
+    private static final String MARKER = ".synthetic-project";
+
+    @Option(name = "-out", usage = "directory to write the project to, with sources in src/ and jars in lib/. " +
+            "Must be empty, or hold a project generated before, which is replaced", required = true)
+    String out;
+
+    @Option(name = "-classes", usage = "number of classes to generate")
+    int classes = 1000;
+
+    @Option(name = "-classesPerPackage", usage = "number of classes in each package")
+    int classesPerPackage = 50;
+
+    @Option(name = "-fanOut", usage = "number of other classes each class references")
+    int fanOut = 3;
+
+    @Option(name = "-hubs", usage = "number of classes that most other classes reference")
+    int hubs = 10;
+
+    @Option(name = "-hubReferences", usage = "how many of each class's references go to hub classes")
+    int hubReferences = 1;
+
+    @Option(name = "-nativeJsEvery", usage = "give every nth class a native method and .native.js file, 0 for none")
+    int nativeJsEvery = 20;
+
+    @Option(name = "-plainJs", usage = "number of plain js files to generate")
+    int plainJs = 10;
+
+    @Option(name = "-libraries", usage = "number of library jars to generate")
+    int libraries = 2;
+
+    @Option(name = "-libraryClasses", usage = "number of classes in each library jar")
+    int libraryClasses = 50;
+
+    @Option(name = "-seed", usage = "seed for choosing references")
+    long seed = 1;
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        SyntheticProjectGenerator generator = new SyntheticProjectGenerator();
+        CmdLineParser parser = new CmdLineParser(generator);
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            e.printStackTrace();
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+        generator.generate();
+    }
+
+    public Path getSourceDir() {
+        return Paths.get(out, "src");
+    }
+
+    /**
+     * Returns the generated library jars, to put on the classpath.
+     */
+    public List<String> getLibraryJars() {
+        List<String> jars = new ArrayList<>();
+        for (int i = 0; i < libraries; i++) {
+            jars.add(Paths.get(out, "lib", libraryName(i) + ".jar").toString());
+        }
+        return jars;
+    }
+
+    /**
+     * Returns the path of the given generated class.
+     */
+    public Path classFile(int number) {
+        return getSourceDir().resolve(packageName(number).replace('.', '/')).resolve(className(number) + ".java");
+    }
+
+    /**
+     * Returns the path of the given plain js file.
+     */
+    public Path plainJsFile(int number) {
+        return getSourceDir().resolve("gen/plain/plain" + number + ".js");
+    }
+
+    /**
+     * Returns the path of the .native.js file of the given class, see {@link #hasNativeJs(int)}.
+     */
+    public Path nativeJsFile(int number) {
+        return getSourceDir().resolve(packageName(number).replace('.', '/')).resolve(className(number) + ".native.js");
+    }
+
+    public boolean hasNativeJs(int number) {
+        return nativeJsEvery > 0 && number % nativeJsEvery == 0;
+    }
+
+    public int getClasses() {
+        return classes;
+    }
+
+    public int getHubs() {
+        return Math.min(hubs, classes);
+    }
+
+    /**
+     * Changes the body of a method in the given class, without changing its signature.
+     */
+    public void editBody(int number, int revision) throws IOException {
+        Path path = classFile(number);
+        String source = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        write(path, source.replaceFirst("(public int revision\\(\\) \\{\\s*return )\\d+;", "$1" + revision + ";"));
+    }
+
+    /**
+     * Adds a method to the given class, changing its signature.
+     */
+    public void editSignature(int number, int revision) throws IOException {
+        Path path = classFile(number);
+        String source = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        int end = source.lastIndexOf('}');
+        write(path, source.substring(0, end) +
+                "\n    public int extra" + revision + "() {\n        return " + revision + ";\n    }\n" +
+                source.substring(end));
+    }
+
+    /**
+     * Writes a new class after the generated ones, referencing the first hub, and returns its path.
+     */
+    public Path addClass(int number) throws IOException {
+        Path path = getSourceDir().resolve("gen/added/Added" + number + ".java");
+        write(path, "package gen.added;\n\n" +
+                "public class Added" + number + " {\n" +
+                "    private " + qualifiedName(0) + " ref0;\n" +
+                "\n" +
+                "    public String describe() {\n" +
+                "        return \"Added" + number + " \" + (ref0 == null ? \"\" : ref0.describe());\n" +
+                "    }\n" +
+                "}\n");
+        return path;
+    }
+
+    /**
+     * Rewrites the given file with a trailing comment, so it changes without changing meaning.
+     */
+    public void touch(Path path, int revision) throws IOException {
+        String source = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).replaceFirst("\n// revision \\d+\n$", "\n");
+        write(path, source + "// revision " + revision + "\n");
+    }
+
+    /**
+     * Writes the project, replacing the one generated there before. Fails rather than deleting an output
+     * directory that has anything else in it.
+     */
+    public void generate() throws IOException {
+        Path outDir = Paths.get(out);
+        if (Files.exists(outDir) && !Files.exists(outDir.resolve(MARKER)) && !isEmptyDirectory(outDir)) {
+            throw new IllegalArgumentException(outDir.toAbsolutePath() + " is not empty and wasn't generated by " + getClass().getSimpleName() + ", choose another -out");
+        }
+        GwtIncompatiblePreprocessor.deleteRecursively(outDir);
+        Path sourceDir = getSourceDir();
+        Files.createDirectories(sourceDir);
+        Files.createFile(outDir.resolve(MARKER));
+
+        Random random = new Random(seed);
+        for (int i = 0; i < classes; i++) {
+            writeClass(i, random);
+        }
+        writeApp();
+        for (int i = 0; i < plainJs; i++) {
+            write(plainJsFile(i), "goog.module('gen.plain.plain" + i + "');\n\nexports.value = " + i + ";\n");
+        }
+        for (int i = 0; i < libraries; i++) {
+            writeLibrary(i);
+        }
+    }
+
+    private static boolean isEmptyDirectory(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return false;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return !files.findAny().isPresent();
+        }
+    }
+
+    private void writeClass(int number, Random random) throws IOException {
+        StringBuilder fields = new StringBuilder();
+        StringBuilder describe = new StringBuilder();
+        List<String> references = new ArrayList<>();
+        for (int i = 0; i < fanOut && number > 0; i++) {
+            int target = i < hubReferences ? random.nextInt(Math.min(hubs, number)) : random.nextInt(number);
+            references.add(qualifiedName(target));
+        }
+        if (libraries > 0 && number % classesPerPackage == 0) {
+            int library = (number / classesPerPackage) % libraries;
+            references.add(libraryName(library) + "." + libraryClassName(number % libraryClasses));
+        }
+        for (int i = 0; i < references.size(); i++) {
+            fields.append("    private ").append(references.get(i)).append(" ref").append(i).append(";\n");
+            describe.append(" + \" \" + (ref").append(i).append(" == null ? \"\" : ref").append(i).append(".describe())");
+        }
+
+        boolean hasNative = hasNativeJs(number);
+        String name = className(number);
+        write(classFile(number), "package " + packageName(number) + ";\n\n" +
+                "public class " + name + " {\n" +
+                fields +
+                "\n" +
+                "    public int revision() {\n" +
+                "        return 0;\n" +
+                "    }\n" +
+                "\n" +
+                "    public String describe() {\n" +
+                "        return \"" + name + " \" + revision()" + describe + ";\n" +
+                "    }\n" +
+                (hasNative ? "\n    public native String nativeName();\n" : "") +
+                "}\n");
+        if (hasNative) {
+            write(nativeJsFile(number), name + ".prototype.m_nativeName__ = function() {\n  return '" + name + "';\n};\n");
+        }
+    }
+
+    /**
+     * Writes the entrypoint, which references the last class in each package so that closure keeps them.
+     */
+    private void writeApp() throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (int i = classesPerPackage - 1; i < classes + classesPerPackage - 1; i += classesPerPackage) {
+            int last = Math.min(i, classes - 1);
+            body.append("        log(new ").append(qualifiedName(last)).append("().describe());\n");
+        }
+        write(getSourceDir().resolve("gen/App.java"), "package gen;\n\n" +
+                "public class App {\n" +
+                "    public static void start() {\n" +
+                body +
+                "    }\n" +
+                "\n" +
+                "    private static native void log(String message);\n" +
+                "}\n");
+        write(getSourceDir().resolve("gen/App.native.js"), "App.m_log__java_lang_String = function(message) {\n" +
+                "  console.log(message);\n" +
+                "};\n" +
+                "\n" +
+                "setTimeout(function() {\n" +
+                "  App.m_start__();\n" +
+                "}, 0);\n");
+    }
+
+    /**
+     * Writes a jar with both the sources and bytecode of a simple library.
+     */
+    private void writeLibrary(int number) throws IOException {
+        String name = libraryName(number);
+        Path libraryDir = Files.createTempDirectory("j2cl-library");
+        try {
+            Path sources = libraryDir.resolve("src");
+            Path classesDir = libraryDir.resolve("classes");
+            Files.createDirectories(classesDir);
+            List<String> javacArgs = new ArrayList<>();
+            javacArgs.add("-d");
+            javacArgs.add(classesDir.toString());
+            for (int i = 0; i < libraryClasses; i++) {
+                Path source = sources.resolve(name + "/" + libraryClassName(i) + ".java");
+                write(source, "package " + name + ";\n\n" +
+                        "public class " + libraryClassName(i) + " {\n" +
+                        "    public String describe() {\n" +
+                        "        return \"" + name + "." + libraryClassName(i) + "\";\n" +
+                        "    }\n" +
+                        "}\n");
+                javacArgs.add(source.toString());
+            }
+            JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+            if (javac.run(null, null, null, javacArgs.toArray(new String[0])) != 0) {
+                throw new IllegalStateException("Failed to compile library " + name);
+            }
+
+            Path jar = Paths.get(out, "lib", name + ".jar");
+            Files.createDirectories(jar.getParent());
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+                addToJar(zip, sources);
+                addToJar(zip, classesDir);
+            }
+        } finally {
+            GwtIncompatiblePreprocessor.deleteRecursively(libraryDir);
+        }
+    }
+
+    private static void addToJar(ZipOutputStream zip, Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                zip.putNextEntry(new ZipEntry(root.relativize(file).toString().replace('\\', '/')));
+                Files.copy(file, zip);
+                zip.closeEntry();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private String packageName(int number) {
+        return String.format("gen.p%04d", number / classesPerPackage);
+    }
+
+    private String qualifiedName(int number) {
+        return packageName(number) + "." + className(number);
+    }
+
+    private static String className(int number) {
+        return String.format("C%06d", number);
+    }
+
+    private static String libraryName(int number) {
+        return "lib" + number;
+    }
+
+    private static String libraryClassName(int number) {
+        return String.format("L%04d", number);
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        try (OutputStream outputStream = Files.newOutputStream(path)) {
+            outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
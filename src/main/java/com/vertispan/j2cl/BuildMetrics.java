@@ -0,0 +1,199 @@
+package com.vertispan.j2cl;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Collects timings (and, where the JVM supports it, bytes allocated by the current thread) for each phase of
+ * a build (setup, or a single compile cycle), and counters for the work done in it, so they can be written out
+ * as a single JSON line when the build finishes. Each phase is also reported as a JDK Flight Recorder event,
+ * when JFR is available in this JVM.
+ * <p>
+ * Phases are used with try-with-resources, so that early returns still end them:
+ * <pre>
+ *     try (BuildMetrics.Phase phase = metrics.phase("javac")) {
+ *         ...
+ *     }
+ * </pre>
+ * Thread safe, so dependencies can record their work from the dependency executor.
+ */
+public class BuildMetrics {
+    private final static Logger LOGGER = Logger.getLogger(BuildMetrics.class.getName());
+
+    private static final boolean JFR_AVAILABLE = isJfrAvailable();
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    private final String type;
+    private final long started = System.currentTimeMillis();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final Map<String, Long> allocations = new LinkedHashMap<>();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+    private boolean success;
+
+    public BuildMetrics(String type) {
+        this.type = type;
+    }
+
+    /**
+     * Starts timing a phase, which ends when the returned phase is closed. Starting a phase with the same
+     * name more than once adds up the time spent in each.
+     */
+    public Phase phase(String name) {
+        return new Phase(name, () -> JfrEvents.beginPhase(type, name));
+    }
+
+    /**
+     * Starts timing the work done on a single dependency. The time is added to the given phase, and a
+     * separate JFR event is recorded for the dependency itself.
+     */
+    public Phase dependency(String phaseName, String dependency) {
+        return new Phase(phaseName, () -> JfrEvents.beginDependency(dependency));
+    }
+
+    /**
+     * Starts timing one part of a phase that is split up to run concurrently, like a single transpile shard.
+     * The time is added to the given phase, and a separate JFR event is recorded for the part.
+     */
+    public Phase subPhase(String phaseName, String part) {
+        return new Phase(phaseName, () -> JfrEvents.beginSubPhase(type, phaseName, part));
+    }
+
+    /**
+     * Adds the given amount to the named counter.
+     */
+    public synchronized void count(String name, long amount) {
+        counters.merge(name, amount, Long::sum);
+    }
+
+    public synchronized Map<String, Long> getPhases() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(phases));
+    }
+
+    /**
+     * Returns true if the build finished successfully.
+     */
+    public synchronized boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Returns the bytes allocated in each phase by the thread that ran it, empty if the JVM can't report it.
+     */
+    public synchronized Map<String, Long> getAllocations() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(allocations));
+    }
+
+    public synchronized Map<String, Long> getCounters() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(counters));
+    }
+
+    /**
+     * Finishes this build, recording the heap in use, then logs the summary and appends it to the metrics
+     * file, if any.
+     */
+    public void finish(boolean success, String metricsFile) {
+        synchronized (this) {
+            this.success = success;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        count("heapUsedBytes", runtime.totalMemory() - runtime.freeMemory());
+
+        String json = toJson(success);
+        LOGGER.info(json);
+        if (metricsFile != null) {
+            try {
+                Files.write(Paths.get(metricsFile), (json + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                LOGGER.warning("Failed to write metrics to " + metricsFile + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Returns the metrics as a single line of JSON, with the total time, each phase in millis, bytes
+     * allocated in each phase, and each counter.
+     */
+    public synchronized String toJson(boolean success) {
+        StringBuilder json = new StringBuilder("{\"type\":\"").append(type).append("\"")
+                .append(",\"timestamp\":").append(started)
+                .append(",\"success\":").append(success)
+                .append(",\"totalMillis\":").append(System.currentTimeMillis() - started)
+                .append(",\"phases\":");
+        appendMap(json, phases);
+        json.append(",\"allocatedBytes\":");
+        appendMap(json, allocations);
+        json.append(",\"counters\":");
+        appendMap(json, counters);
+        return json.append("}").toString();
+    }
+
+    private static void appendMap(StringBuilder json, Map<String, Long> map) {
+        json.append("{");
+        String separator = "";
+        for (Map.Entry<String, Long> entry : map.entrySet()) {
+            json.append(separator).append("\"").append(entry.getKey()).append("\":").append(entry.getValue());
+            separator = ",";
+        }
+        json.append("}");
+    }
+
+    private synchronized void addPhase(String name, long millis, long allocatedBytes) {
+        phases.merge(name, millis, Long::sum);
+        if (allocatedBytes >= 0) {
+            allocations.merge(name, allocatedBytes, Long::sum);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            ((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+            return (com.sun.management.ThreadMXBean) threads;
+        }
+        return null;
+    }
+
+    public class Phase implements AutoCloseable {
+        private final String name;
+        private final long started = System.currentTimeMillis();
+        private final long allocatedAtStart = allocatedBytes();
+        private final Object event;
+
+        // the event is only created if JFR is available, so JfrEvents is never loaded otherwise
+        private Phase(String name, Supplier<Object> event) {
+            this.name = name;
+            this.event = JFR_AVAILABLE ? event.get() : null;
+        }
+
+        @Override
+        public void close() {
+            addPhase(name, System.currentTimeMillis() - started, allocatedAtStart < 0 ? -1 : allocatedBytes() - allocatedAtStart);
+            if (event != null) {
+                JfrEvents.commit(event);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.vertispan.j2cl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Tracks a content digest for each generated file, so we can tell whether a file that was rewritten actually
+ * changed. Files are only re-read if their size or last modified time differ from the last time we saw them.
+ */
+public class ContentDigests {
+    private final Map<Path, Entry> entries = new HashMap<>();
+
+    /**
+     * Updates the digest for the given file.
+     *
+     * @return true if the content of the file is new or different from the last call
+     */
+    public boolean update(Path file, BasicFileAttributes attrs) throws IOException {
+        Entry existing = entries.get(file);
+        if (existing != null && existing.size == attrs.size() && existing.lastModified.equals(attrs.lastModifiedTime())) {
+            return false;
+        }
+        String digest;
+        try (InputStream stream = Files.newInputStream(file)) {
+            digest = DigestUtils.md5Hex(stream);
+        }
+        entries.put(file, new Entry(attrs.size(), attrs.lastModifiedTime(), digest));
+        return existing == null || !existing.digest.equals(digest);
+    }
+
+    /**
+     * Returns the last digest seen for the given file, or null if it hasn't been seen.
+     */
+    public String getDigest(Path file) {
+        Entry entry = entries.get(file);
+        return entry == null ? null : entry.digest;
+    }
+
+    /**
+     * Forgets the given file, returning the last digest seen for it, or null if it hadn't been seen.
+     */
+    public String remove(Path file) {
+        Entry entry = entries.remove(file);
+        return entry == null ? null : entry.digest;
+    }
+
+    private static class Entry {
+        private final long size;
+        private final FileTime lastModified;
+        private final String digest;
+
+        private Entry(long size, FileTime lastModified, String digest) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+}
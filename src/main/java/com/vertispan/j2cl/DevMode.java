@@ -21,7 +21,14 @@ public class DevMode {
             parser.printUsage(System.err);
             System.exit(1);
         }
-        ListeningCompiler.run(options);
+        if (options.getPort() > 0) {
+            // start serving right away, requests wait for the first compile to finish
+            DevServer server = new DevServer(options);
+            server.start();
+            ListeningCompiler.run(options, server);
+        } else {
+            ListeningCompiler.run(options);
+        }
     }
 
 }
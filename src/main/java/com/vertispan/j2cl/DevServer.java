@@ -0,0 +1,275 @@
+package com.vertispan.j2cl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Embedded http server for dev mode, serving the compiled output and any static files.
+ * <p>
+ * The compiled output file and its source map are read into memory once each compile succeeds, and only
+ * replace the previous output then, so a browser never sees a half-written or partially updated bundle. Requests that arrive once a change has
+ * been seen, or while a compile is in progress, wait for it to finish, so a reload after saving a change gets
+ * the new code the first time.
+ * <p>
+ * Everything is sent with an ETag and must be revalidated, so unchanged files are answered with a 304. Only
+ * the loopback interface is served unless a -bind address is given.
+ */
+public class DevServer {
+    private final static Logger LOGGER = Logger.getLogger(DevServer.class.getName());
+
+    // longest a request will wait for a compile, after which it gets whatever was built last
+    private static final long COMPILE_WAIT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Path outputFile;
+    private final List<Path> staticDirs = new ArrayList<>();
+    private final Map<Path, Resource> staticFiles = new ConcurrentHashMap<>();
+
+    private final Object lock = new Object();
+    // requests wait until the first compile is done
+    private boolean compiling = true;
+    // changes were seen, but the compile for them hasn't started yet
+    private boolean pending;
+    private boolean failed;
+    private Map<String, Resource> output = Collections.emptyMap();
+
+    public DevServer(Gwt3Options options) throws IOException {
+        outputFile = Paths.get(options.getJsOutputFile()).toAbsolutePath();
+        for (String dir : options.getStaticDir()) {
+            staticDirs.add(Paths.get(dir).toAbsolutePath());
+        }
+        // only reachable from this machine unless asked otherwise, the server hands out the app's source
+        InetAddress address = options.getBind() == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(options.getBind());
+        server = HttpServer.create(new InetSocketAddress(address, options.getPort()), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+        LOGGER.info("Serving " + outputFile + " and " + staticDirs + " on http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort() + "/");
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Marks that sources changed, so new requests wait for the compile that will follow, even if the compile
+     * before it finishes first.
+     */
+    public void changesPending() {
+        synchronized (lock) {
+            pending = true;
+        }
+    }
+
+    /**
+     * Marks that the changes seen since {@link #changesPending()} need no compile after all, so requests
+     * only wait for a compile that is already in progress.
+     */
+    public void changesDiscarded() {
+        synchronized (lock) {
+            pending = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Marks a compile as started, so new requests wait for it to finish.
+     */
+    public void compileStarted() {
+        synchronized (lock) {
+            pending = false;
+            compiling = true;
+        }
+    }
+
+    /**
+     * Marks the compile as finished, and if it succeeded, replaces the served output with what it wrote. Any
+     * waiting requests are then answered.
+     */
+    public void compileFinished(boolean success) {
+        Map<String, Resource> compiled = null;
+        if (success) {
+            try {
+                compiled = readOutput();
+            } catch (IOException e) {
+                LOGGER.warning("Failed to read compiled output from " + outputFile + ": " + e);
+                success = false;
+            }
+        }
+        synchronized (lock) {
+            if (compiled != null) {
+                output = compiled;
+            }
+            failed = !success;
+            compiling = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Reads the output file and its source map, if there is one. Anything else next to it is left to the
+     * static directories, so that pointing the output at a directory of other files doesn't serve them all.
+     */
+    private Map<String, Resource> readOutput() throws IOException {
+        Map<String, Resource> compiled = new HashMap<>();
+        compiled.put(outputFile.getFileName().toString(), new Resource(Files.readAllBytes(outputFile), contentType(outputFile), 0));
+        Path sourceMap = outputFile.resolveSibling(outputFile.getFileName() + ".map");
+        if (Files.isRegularFile(sourceMap)) {
+            compiled.put(sourceMap.getFileName().toString(), new Resource(Files.readAllBytes(sourceMap), contentType(sourceMap), 0));
+        }
+        return compiled;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                sendText(exchange, 405, "Method not allowed");
+                return;
+            }
+
+            Map<String, Resource> output;
+            boolean failed;
+            synchronized (lock) {
+                long deadline = System.currentTimeMillis() + COMPILE_WAIT_MILLIS;
+                while ((compiling || pending) && System.currentTimeMillis() < deadline) {
+                    lock.wait(deadline - System.currentTimeMillis());
+                }
+                output = this.output;
+                failed = this.failed;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("/")) {
+                path += "index.html";
+            }
+            path = path.substring(1);
+            if (path.contains("..")) {
+                sendText(exchange, 404, "Not found");
+                return;
+            }
+
+            Resource resource = output.get(path);
+            if (resource != null && failed) {
+                sendText(exchange, 503, "Compile failed, see the dev mode log for details");
+                return;
+            }
+            if (resource == null) {
+                resource = findStatic(path);
+            }
+            if (resource == null) {
+                sendText(exchange, 404, "Not found");
+                return;
+            }
+            send(exchange, resource);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns the file from the first static directory that has it, re-reading it only when it changed.
+     */
+    private Resource findStatic(String path) throws IOException {
+        for (Path dir : staticDirs) {
+            Path file = dir.resolve(path).normalize();
+            if (!file.startsWith(dir) || !Files.isRegularFile(file)) {
+                continue;
+            }
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            Resource cached = staticFiles.get(file);
+            if (cached == null || cached.lastModified != lastModified || cached.content.length != attrs.size()) {
+                cached = new Resource(Files.readAllBytes(file), contentType(file), lastModified);
+                staticFiles.put(file, cached);
+            }
+            return cached;
+        }
+        return null;
+    }
+
+    private static void send(HttpExchange exchange, Resource resource) throws IOException {
+        exchange.getResponseHeaders().set("ETag", resource.etag);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        if (resource.etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", resource.contentType);
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, resource.content.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(resource.content);
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] content = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(status, content.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(content);
+        }
+    }
+
+    private static String contentType(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".js")) {
+            return "application/javascript; charset=utf-8";
+        } else if (name.endsWith(".html")) {
+            return "text/html; charset=utf-8";
+        } else if (name.endsWith(".css")) {
+            return "text/css; charset=utf-8";
+        } else if (name.endsWith(".map") || name.endsWith(".json")) {
+            return "application/json; charset=utf-8";
+        }
+        String probed = Files.probeContentType(file);
+        return probed == null ? "application/octet-stream" : probed;
+    }
+
+    private static class Resource {
+        private final byte[] content;
+        private final String contentType;
+        private final String etag;
+        private final long lastModified;
+
+        private Resource(byte[] content, String contentType, long lastModified) {
+            this.content = content;
+            this.contentType = contentType;
+            this.etag = "\"" + DigestUtils.md5Hex(content) + "\"";
+            this.lastModified = lastModified;
+        }
+    }
+}
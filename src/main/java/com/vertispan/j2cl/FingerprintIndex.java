@@ -0,0 +1,178 @@
+package com.vertispan.j2cl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers the content hash of each classpath file, keyed on its absolute path, size and last modified time,
+ * so that files which haven't changed since the last run don't need to be read at all to find their entry in
+ * the jszip cache.
+ * <p>
+ * The index is a simple tab separated text file, persisted in the cache directory. On a miss, the file is
+ * hashed with CRC32 and Adler32 (both are fast, and intrinsics on most jvms) - this isn't meant to be secure,
+ * only to notice that a jar changed. Hashes that are shared with other machines, where a collision could be
+ * forged, should come from a {@link #loadSecure secure} index instead, which uses SHA-256.
+ * <p>
+ * Lookups are thread safe, so dependencies can be hashed from the dependency executor.
+ */
+public class FingerprintIndex {
+    private final static Logger LOGGER = Logger.getLogger(FingerprintIndex.class.getName());
+
+    // bump these if the hash algorithms change, so old entries are ignored
+    private static final String VERSION = "crc32-adler32-1";
+    private static final String SECURE_VERSION = "sha256-1";
+
+    private final Path indexFile;
+    private final boolean secure;
+    private final Map<String, Fingerprint> entries = new ConcurrentHashMap<>();
+
+    private FingerprintIndex(Path indexFile, boolean secure) {
+        this.indexFile = indexFile;
+        this.secure = secure;
+    }
+
+    /**
+     * Reads the index from the given file. If the file is missing or from a different version, the index
+     * starts out empty.
+     */
+    public static FingerprintIndex load(Path indexFile) throws IOException {
+        return load(indexFile, false);
+    }
+
+    /**
+     * Reads an index of SHA-256 hashes from the given file, like {@link #load(Path)}.
+     */
+    public static FingerprintIndex loadSecure(Path indexFile) throws IOException {
+        return load(indexFile, true);
+    }
+
+    private static FingerprintIndex load(Path indexFile, boolean secure) throws IOException {
+        FingerprintIndex index = new FingerprintIndex(indexFile, secure);
+        if (!Files.exists(indexFile)) {
+            return index;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            if (!index.version().equals(reader.readLine())) {
+                LOGGER.info("Ignoring fingerprint index from a different version " + indexFile);
+                return index;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 4);
+                if (parts.length != 4) {
+                    continue;
+                }
+                index.entries.put(parts[3], new Fingerprint(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[0]));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the content hash for the given file, only reading it if it isn't already in the index with the
+     * same size and last modified time.
+     */
+    public String hash(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        Fingerprint existing = entries.get(path);
+        if (existing != null && existing.size == size && existing.lastModified == lastModified) {
+            return existing.hash;
+        }
+
+        String hash = secure ? sha256(file) : contentHash(file);
+        entries.put(path, new Fingerprint(size, lastModified, hash));
+        return hash;
+    }
+
+    /**
+     * Writes the index back to disk, dropping any entries for files that no longer exist. The file is written
+     * next to the original and then moved into place, so a concurrent reader never sees a partial index.
+     */
+    public void save() throws IOException {
+        Files.createDirectories(indexFile.getParent());
+        Path tmp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(version());
+            writer.newLine();
+            for (Map.Entry<String, Fingerprint> entry : entries.entrySet()) {
+                if (!new File(entry.getKey()).exists()) {
+                    continue;
+                }
+                Fingerprint fingerprint = entry.getValue();
+                writer.write(fingerprint.hash + "\t" + fingerprint.size + "\t" + fingerprint.lastModified + "\t" + entry.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String version() {
+        return secure ? SECURE_VERSION : VERSION;
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every jvm is required to support it
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream stream = new FileInputStream(file)) {
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static String contentHash(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        Adler32 adler = new Adler32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream stream = new FileInputStream(file)) {
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                adler.update(buffer, 0, read);
+            }
+        }
+        return String.format("%08x%08x", crc.getValue(), adler.getValue());
+    }
+
+    private static class Fingerprint {
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+
+        private Fingerprint(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+}
@@ -43,5 +43,77 @@ public interface Gwt3Options {
 
     String getJsZipCacheDir();
 
+    /**
+     * Returns the most megabytes the jsZipCache dir may hold before the least recently used files are
+     * evicted, or zero for no limit
+     */
+    long getJsZipCacheMaxSize();
+
+    /**
+     * Returns the url of a cache server shared with other machines, to fetch dependencies from before building
+     * them, and to upload them to after, or null if there is none
+     */
+    String getRemoteJsZipCache();
+
+    /**
+     * Returns true if jszips should be written with stored entries, so closure can read them without inflating
+     */
+    boolean isStoredJsZips();
+
     String getOutputJsPathDir();
+
+    /**
+     * Returns the number of threads to use when pre-transpiling dependencies
+     */
+    int getDependencyThreads();
+
+    /**
+     * Returns the most shards to split a large transpile into, to run concurrently
+     */
+    int getTranspileShards();
+
+    /**
+     * Returns a directory to keep preprocessed sources in between runs, or null to only cache them in memory
+     */
+    String getPreprocessorCacheDir();
+
+    /**
+     * Returns the file to append build metrics to, or null to only log them
+     */
+    String getMetricsFile();
+
+    /**
+     * Returns the port to serve compiled output and static files on, or 0 to not start a server
+     */
+    int getPort();
+
+    /**
+     * Returns the address to serve on, or null to only serve on the loopback interface
+     */
+    String getBind();
+
+    /**
+     * Returns directories of static files to serve along with the compiled output
+     */
+    List<String> getStaticDir();
+
+    /**
+     * Returns how long to wait after the last change before compiling, so a burst of changes is compiled at once
+     */
+    long getQuietPeriod();
+
+    /**
+     * Returns the longest to wait after the first change before compiling, even if changes keep arriving
+     */
+    long getMaxWait();
+
+    /**
+     * Returns true if a BUNDLE compile should concatenate the js inputs directly, without running closure
+     */
+    boolean isFastBundle();
+
+    /**
+     * Returns true if closure's parsed jszip inputs should be saved and loaded again after a restart
+     */
+    boolean isInputSnapshots();
 }
@@ -47,6 +47,70 @@ public class Gwt3OptionsImpl implements Gwt3Options {
             "cleared when j2cl version changes", required = true)
     String jsZipCacheDir;
 
+    @Option(name = "-jsZipCacheMaxSize", usage = "most megabytes to keep in the jsZipCache. The least " +
+            "recently used files are evicted at startup when it is over. Defaults to 0, no limit")
+    long jsZipCacheMaxSize;
+
+    @Option(name = "-remoteJsZipCache", usage = "url of a jszip cache server shared with other " +
+            "machines, see JsZipCacheServer. Dependencies missing from the jsZipCache are fetched " +
+            "from it before being built, and uploaded to it after")
+    String remoteJsZipCache;
+
+    @Option(name = "-storedJsZips", usage = "write the jszips in the jsZipCache uncompressed, so " +
+            "they are larger, but faster for closure to read")
+    boolean storedJsZips;
+
+    @Option(name = "-dependencyThreads", usage = "number of threads to use when pre-transpiling " +
+            "source jars from the classpath into the jsZipCache. Defaults to the number of " +
+            "available processors")
+    int dependencyThreads;
+
+    @Option(name = "-transpileShards", usage = "most number of shards to split the java sources " +
+            "into when transpiling, each run on its own thread. Small changes are transpiled in one " +
+            "shard. Defaults to the number of available processors, 1 disables sharding")
+    int transpileShards;
+
+    @Option(name = "-preprocessorCache", usage = "directory to keep preprocessed sources in, so " +
+            "unchanged sources aren't preprocessed again after a restart. If not specified, " +
+            "preprocessed sources are only cached in memory")
+    String preprocessorCacheDir;
+
+    @Option(name = "-metricsFile", usage = "file to append a line of JSON to after setup and " +
+            "each compile, with the time spent in each phase and counts of the work done")
+    String metricsFile;
+
+    @Option(name = "-port", usage = "port to serve compiled output and static files on. Page " +
+            "requests wait for any compile in progress, so a reload always gets fresh code. If " +
+            "not specified, no server is started")
+    int port;
+
+    @Option(name = "-bind", usage = "address to serve on. Defaults to the loopback interface, so only " +
+            "this machine can reach the server, give 0.0.0.0 to serve on every interface")
+    String bind;
+
+    @Option(name = "-static", usage = "one or more directories of static files (html, css, " +
+            "images) to serve along with the compiled output")
+    List<String> staticDir;
+
+    @Option(name = "-quietPeriod", usage = "milliseconds without further changes to wait for " +
+            "before compiling, so that a burst of changes (saving all files, switching branches) " +
+            "is compiled at once. Defaults to 100")
+    long quietPeriod;
+
+    @Option(name = "-maxWait", usage = "most milliseconds to wait after the first change before " +
+            "compiling, even if changes are still arriving. Defaults to 1000")
+    long maxWait;
+
+    @Option(name = "-fastBundle", usage = "when the compilation level is BUNDLE, skip closure and concatenate " +
+            "the js inputs in dependency order. Much faster, but nothing is checked or transpiled to the " +
+            "language_out, so the browser must support the transpiled output")
+    boolean fastBundle;
+
+    @Option(name = "-inputSnapshots", usage = "experimental: save closure's parsed jszip inputs in the " +
+            "jsZipCacheDir, so they don't have to be parsed again after a restart. Relies on closure " +
+            "internals, and is turned off if they don't match")
+    boolean inputSnapshots;
+
     //lifted straight from closure for consistency
     @Option(name = "--define",
             aliases = {"--D", "-D"},
@@ -113,7 +177,7 @@ public class Gwt3OptionsImpl implements Gwt3Options {
 
 
     //works with builder so test can create instances, copying properties as needed
-    Gwt3OptionsImpl(List<String> sourceDir, List<String> bytecodeClasspath, List<String> j2clClasspath, String javacBootClasspath, String outputJsPathDir, String classesDir, List<String> entrypoint, String jsZipCacheDir, List<String> define, List<String> externs, String compilationLevel, String languageOut, CompilerOptions.DependencyMode dependencyMode, boolean declareLegacyNamespaces) {
+    Gwt3OptionsImpl(List<String> sourceDir, List<String> bytecodeClasspath, List<String> j2clClasspath, String javacBootClasspath, String outputJsPathDir, String classesDir, List<String> entrypoint, String jsZipCacheDir, long jsZipCacheMaxSize, String remoteJsZipCache, boolean storedJsZips, int dependencyThreads, int transpileShards, String preprocessorCacheDir, String metricsFile, int port, String bind, List<String> staticDir, long quietPeriod, long maxWait, boolean fastBundle, boolean inputSnapshots, List<String> define, List<String> externs, String compilationLevel, String languageOut, CompilerOptions.DependencyMode dependencyMode, boolean declareLegacyNamespaces) {
         this.sourceDir = sourceDir;
         this.bytecodeClasspath = bytecodeClasspath;
         this.j2clClasspath = j2clClasspath;
@@ -122,6 +186,20 @@ public class Gwt3OptionsImpl implements Gwt3Options {
         this.classesDir = classesDir;
         this.entrypoint = entrypoint;
         this.jsZipCacheDir = jsZipCacheDir;
+        this.jsZipCacheMaxSize = jsZipCacheMaxSize;
+        this.remoteJsZipCache = remoteJsZipCache;
+        this.storedJsZips = storedJsZips;
+        this.dependencyThreads = dependencyThreads;
+        this.transpileShards = transpileShards;
+        this.preprocessorCacheDir = preprocessorCacheDir;
+        this.metricsFile = metricsFile;
+        this.port = port;
+        this.bind = bind;
+        this.staticDir = staticDir;
+        this.quietPeriod = quietPeriod;
+        this.maxWait = maxWait;
+        this.fastBundle = fastBundle;
+        this.inputSnapshots = inputSnapshots;
         this.define = define;
         this.externs = externs;
         this.compilationLevel = compilationLevel;
@@ -228,10 +306,86 @@ public class Gwt3OptionsImpl implements Gwt3Options {
         return jsZipCacheDir;
     }
 
+    @Override
+    public long getJsZipCacheMaxSize() {
+        return jsZipCacheMaxSize;
+    }
+
+    @Override
+    public String getRemoteJsZipCache() {
+        return remoteJsZipCache;
+    }
+
+    @Override
+    public boolean isStoredJsZips() {
+        return storedJsZips;
+    }
+
     public String getOutputJsPathDir() {
         return outputJsPathDir;
     }
 
+    @Override
+    public int getDependencyThreads() {
+        if (dependencyThreads <= 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return dependencyThreads;
+    }
+
+    @Override
+    public int getTranspileShards() {
+        if (transpileShards <= 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return transpileShards;
+    }
+
+    @Override
+    public String getPreprocessorCacheDir() {
+        return preprocessorCacheDir;
+    }
+
+    @Override
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    @Override
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public String getBind() {
+        return bind;
+    }
+
+    @Override
+    public List<String> getStaticDir() {
+        return staticDir;
+    }
+
+    @Override
+    public long getQuietPeriod() {
+        return quietPeriod;
+    }
+
+    @Override
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    @Override
+    public boolean isFastBundle() {
+        return fastBundle;
+    }
+
+    @Override
+    public boolean isInputSnapshots() {
+        return inputSnapshots;
+    }
+
     @Override
     public File getBootstrapClasspath() {
         return new File(javacBootClasspath);
@@ -14,6 +14,20 @@ public class Gwt3OptionsImplBuilder {
     private String classesDir;
     private List<String> entrypoint = new ArrayList<>();
     private String jsZipCacheDir;
+    private long jsZipCacheMaxSize;
+    private String remoteJsZipCache;
+    private boolean storedJsZips;
+    private int dependencyThreads;
+    private int transpileShards;
+    private String preprocessorCacheDir;
+    private String metricsFile;
+    private int port;
+    private String bind;
+    private List<String> staticDir = new ArrayList<>();
+    private long quietPeriod = 100;
+    private long maxWait = 1000;
+    private boolean fastBundle = false;
+    private boolean inputSnapshots = false;
     private List<String> define = new ArrayList<>();
     private List<String> externs = new ArrayList<>();
     private String compilationLevel = "BUNDLE";
@@ -61,6 +75,76 @@ public class Gwt3OptionsImplBuilder {
         return this;
     }
 
+    public Gwt3OptionsImplBuilder setJsZipCacheMaxSize(long jsZipCacheMaxSize) {
+        this.jsZipCacheMaxSize = jsZipCacheMaxSize;
+        return this;
+    }
+
+    public Gwt3OptionsImplBuilder setRemoteJsZipCache(String remoteJsZipCache) {
+        this.remoteJsZipCache = remoteJsZipCache;
+        return this;
+    }
+
+    public Gwt3OptionsImplBuilder setStoredJsZips(boolean storedJsZips) {
+        this.storedJsZips = storedJsZips;
+        return this;
+    }
+
+    public Gwt3OptionsImplBuilder setDependencyThreads(int dependencyThreads) {
+        this.dependencyThreads = dependencyThreads;
+        return this;
+    }
+
+    public Gwt3OptionsImplBuilder setTranspileShards(int transpileShards) {
+        this.transpileShards = transpileShards;
+        return this;
+    }
+
+    public Gwt3OptionsImplBuilder setPreprocessorCacheDir(String preprocessorCacheDir) {
+        this.preprocessorCacheDir = preprocessorCacheDir;
+        return this;
+    }
+
+    public Gwt3OptionsImplBuilder setMetricsFile(String metricsFile) {
+        this.metricsFile = metricsFile;
+        return this;
+    }
+
+    public Gwt3OptionsImplBuilder setPort(int port) {
+        this.port = port;
+        return this;
+    }
+
+    public Gwt3OptionsImplBuilder setBind(String bind) {
+        this.bind = bind;
+        return this;
+    }
+
+    public Gwt3OptionsImplBuilder setStaticDir(List<String> staticDir) {
+        this.staticDir = staticDir;
+        return this;
+    }
+
+    public Gwt3OptionsImplBuilder setQuietPeriod(long quietPeriod) {
+        this.quietPeriod = quietPeriod;
+        return this;
+    }
+
+    public Gwt3OptionsImplBuilder setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+        return this;
+    }
+
+    public Gwt3OptionsImplBuilder setFastBundle(boolean fastBundle) {
+        this.fastBundle = fastBundle;
+        return this;
+    }
+
+    public Gwt3OptionsImplBuilder setInputSnapshots(boolean inputSnapshots) {
+        this.inputSnapshots = inputSnapshots;
+        return this;
+    }
+
     public Gwt3OptionsImplBuilder setDefine(List<String> define) {
         this.define = define;
         return this;
@@ -92,6 +176,6 @@ public class Gwt3OptionsImplBuilder {
     }
 
     public Gwt3OptionsImpl createGwt3OptionsImpl() {
-        return new Gwt3OptionsImpl(sourceDir, bytecodeClasspath, j2clClasspath, javacBootClasspath, outputJsPathDir, classesDir, entrypoint, jsZipCacheDir, define, externs, compilationLevel, languageOut, dependencyMode, declareLegacyNamespaces);
+        return new Gwt3OptionsImpl(sourceDir, bytecodeClasspath, j2clClasspath, javacBootClasspath, outputJsPathDir, classesDir, entrypoint, jsZipCacheDir, jsZipCacheMaxSize, remoteJsZipCache, storedJsZips, dependencyThreads, transpileShards, preprocessorCacheDir, metricsFile, port, bind, staticDir, quietPeriod, maxWait, fastBundle, inputSnapshots, define, externs, compilationLevel, languageOut, dependencyMode, declareLegacyNamespaces);
     }
 }
\ No newline at end of file
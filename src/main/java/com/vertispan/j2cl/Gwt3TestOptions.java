@@ -43,6 +43,46 @@ public class Gwt3TestOptions {
             "cleared when j2cl version changes", required = true)
     String jsZipCacheDir;
 
+    @Option(name = "-jsZipCacheMaxSize", usage = "most megabytes to keep in the jsZipCache. The least " +
+            "recently used files are evicted at startup when it is over. Defaults to 0, no limit")
+    long jsZipCacheMaxSize;
+
+    @Option(name = "-remoteJsZipCache", usage = "url of a jszip cache server shared with other " +
+            "machines, see JsZipCacheServer. Dependencies missing from the jsZipCache are fetched " +
+            "from it before being built, and uploaded to it after")
+    String remoteJsZipCache;
+
+    @Option(name = "-storedJsZips", usage = "write the jszips in the jsZipCache uncompressed, so " +
+            "they are larger, but faster for closure to read")
+    boolean storedJsZips;
+
+    @Option(name = "-dependencyThreads", usage = "number of threads to use when pre-transpiling " +
+            "source jars from the classpath into the jsZipCache. Defaults to the number of " +
+            "available processors")
+    int dependencyThreads;
+
+    @Option(name = "-transpileShards", usage = "most number of shards to split the java sources " +
+            "into when transpiling, each run on its own thread. Defaults to the number of available " +
+            "processors, 1 disables sharding")
+    int transpileShards;
+
+    @Option(name = "-preprocessorCache", usage = "directory to keep preprocessed sources in, so " +
+            "unchanged sources aren't preprocessed again after a restart. If not specified, " +
+            "preprocessed sources are only cached in memory")
+    String preprocessorCacheDir;
+
+    @Option(name = "-metricsFile", usage = "file to append a line of JSON to after setup and " +
+            "each compile, with the time spent in each phase and counts of the work done")
+    String metricsFile;
+
+    @Option(name = "-fastBundle", usage = "when the compilation level is BUNDLE, skip closure and concatenate " +
+            "the js inputs in dependency order")
+    boolean fastBundle;
+
+    @Option(name = "-inputSnapshots", usage = "experimental: save closure's parsed jszip inputs in the " +
+            "jsZipCacheDir, so they don't have to be parsed again after a restart")
+    boolean inputSnapshots;
+
     //lifted straight from closure for consistency
     @Option(name = "--define",
             aliases = {"--D", "-D"},
@@ -78,6 +118,15 @@ public class Gwt3TestOptions {
                 .setClassesDir(classesDir)
                 .setClassesDir(classesDir)
                 .setJsZipCacheDir(jsZipCacheDir)
+                .setJsZipCacheMaxSize(jsZipCacheMaxSize)
+                .setRemoteJsZipCache(remoteJsZipCache)
+                .setStoredJsZips(storedJsZips)
+                .setDependencyThreads(dependencyThreads)
+                .setTranspileShards(transpileShards)
+                .setPreprocessorCacheDir(preprocessorCacheDir)
+                .setMetricsFile(metricsFile)
+                .setFastBundle(fastBundle)
+                .setInputSnapshots(inputSnapshots)
                 .setDefine(define)
                 .setExterns(externs)
                 .setDeclareLegacyNamespaces(declareLegacyNamespaces)
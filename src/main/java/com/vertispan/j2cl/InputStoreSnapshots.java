@@ -0,0 +1,261 @@
+package com.vertispan.j2cl;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerInput;
+import com.google.javascript.jscomp.PersistentInputStore;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Saves the parsed inputs that the {@link PersistentInputStore} holds for each jszip to disk, and puts them
+ * back into a new store after a restart, so that closure doesn't have to parse the jre and every dependency
+ * again before the first compile.
+ * <p>
+ * Only jszips are saved, since they don't change while running. Each snapshot is named for the content hash
+ * of its jszip and the closure build that wrote it (its release version, and the size and time of its jar, as
+ * a SNAPSHOT keeps its version across builds), so a changed jszip or a new closure just means a new snapshot. Snapshots are read on a background thread, so they load while javac and j2cl run, and are
+ * only waited for right before jscomp needs them. Several compilers may share a store and its snapshots.
+ * <p>
+ * The store has no api for this, so its cached inputs are reached with reflection, through fields checked by
+ * name and type. If that or the serialization fails (for example after a closure upgrade changes the store),
+ * or closure isn't loaded from a jar, snapshots are turned off and the store is filled by parsing as usual.
+ * Until closure has a supported way to do this, snapshots are only used when asked for with -inputSnapshots.
+ */
+public class InputStoreSnapshots {
+    private final static Logger LOGGER = Logger.getLogger(InputStoreSnapshots.class.getName());
+
+    // bump this if the snapshot layout changes, so old files are ignored
+    private static final String FORMAT = "inputs-1";
+
+    // PersistentInputStore's map from each jszip to its CacheEntry, and the entry's map of parsed inputs
+    private static final String STORE_FIELD = "store";
+    private static final String ENTRY_FIELD = "dependencies";
+
+    private final Path dir;
+    private final PersistentInputStore store;
+    private final JsZipCache jsZipCache;
+    private final String compilerVersion = closureVersion();
+    // snapshot file for each jszip that doesn't have one yet
+    private final Map<String, Path> unsaved = new ConcurrentHashMap<>();
+    // jszips that have been asked for, as several compilers can share a store
+    private final Set<String> requested = new HashSet<>();
+    private final List<Future<Integer>> loading = new ArrayList<>();
+    private volatile boolean disabled;
+
+    public InputStoreSnapshots(Path dir, PersistentInputStore store, JsZipCache jsZipCache) {
+        this.dir = dir;
+        this.store = store;
+        this.jsZipCache = jsZipCache;
+        if (compilerVersion == null) {
+            LOGGER.info("Closure isn't loaded from a jar, so its build can't be told apart, not using closure input snapshots");
+            disabled = true;
+        }
+    }
+
+    /**
+     * Identifies the closure build that reads and writes snapshots, or returns null if it can't be told.
+     */
+    private static String closureVersion() {
+        File jar;
+        try {
+            jar = new File(PersistentInputStore.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException | RuntimeException e) {
+            return null;
+        }
+        if (!jar.isFile()) {
+            return null;
+        }
+        return DigestUtils.md5Hex(Compiler.getReleaseVersion() + "\t" + jar.length() + "\t" + jar.lastModified());
+    }
+
+    /**
+     * Starts loading the snapshot of each given jszip (already added to the store), keyed on its content hash,
+     * skipping any that were already asked for.
+     */
+    public synchronized void loadAsync(Map<String, String> jszipHashes) throws IOException {
+        if (disabled) {
+            return;
+        }
+        Files.createDirectories(dir);
+        Map<String, Path> snapshots = new LinkedHashMap<>();
+        for (Map.Entry<String, String> jszip : jszipHashes.entrySet()) {
+            if (requested.add(jszip.getKey())) {
+                snapshots.put(jszip.getKey(), dir.resolve(jszip.getValue() + "-" + compilerVersion + ".inputs"));
+            }
+        }
+        if (snapshots.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        loading.add(executor.submit(() -> {
+            int loaded = 0;
+            for (Map.Entry<String, Path> snapshot : snapshots.entrySet()) {
+                if (!disabled && Files.exists(snapshot.getValue()) && load(snapshot.getKey(), snapshot.getValue())) {
+                    loaded++;
+                } else {
+                    unsaved.put(snapshot.getKey(), snapshot.getValue());
+                }
+            }
+            LOGGER.info("Loaded " + loaded + " of " + snapshots.size() + " closure input snapshots");
+            return loaded;
+        }));
+        // the thread ends once the loading is done
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the snapshots asked for so far to be loaded, so that closure sees all of them.
+     *
+     * @return the number of snapshots loaded since the last call
+     */
+    public int awaitLoaded() throws InterruptedException {
+        List<Future<Integer>> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(loading);
+            loading.clear();
+        }
+        int loaded = 0;
+        for (Future<Integer> future : pending) {
+            try {
+                loaded += future.get();
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.WARNING, "Failed to load closure input snapshots", e.getCause());
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Writes a snapshot of each jszip that didn't have one, now that closure has parsed it. Should only be
+     * called after a successful compile has reset its compiler inputs, so they no longer refer to that compile,
+     * once the loading has been awaited, while holding the store's lock.
+     *
+     * @return the number of snapshots written
+     */
+    public int saveUnsaved() {
+        int saved = 0;
+        for (Map.Entry<String, Path> snapshot : new ArrayList<>(unsaved.entrySet())) {
+            if (disabled) {
+                break;
+            }
+            if (save(snapshot.getKey(), snapshot.getValue())) {
+                saved++;
+            }
+            unsaved.remove(snapshot.getKey());
+        }
+        return saved;
+    }
+
+    private boolean load(String jszip, Path snapshot) {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16))) {
+            if (!FORMAT.equals(in.readUTF())) {
+                return false;
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> inputs = (Map<String, Object>) in.readObject();
+            for (Object input : inputs.values()) {
+                if (!(input instanceof CompilerInput)) {
+                    throw new ClassCastException("Not a CompilerInput: " + input.getClass());
+                }
+            }
+            // read outside the lock, a compiler sharing the store may be using it
+            synchronized (store) {
+                Map<String, Object> cached = cachedInputs(jszip);
+                if (cached == null) {
+                    return false;
+                }
+                cached.putAll(inputs);
+            }
+            jsZipCache.accessed(snapshot);
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            disable(e);
+            return false;
+        } catch (IOException e) {
+            // written by an incompatible closure build, or truncated, drop it so it's written again
+            LOGGER.info("Discarding unreadable closure input snapshot " + snapshot + ": " + e);
+            try {
+                Files.deleteIfExists(snapshot);
+            } catch (IOException ignore) {
+                // will be replaced when it's saved
+            }
+            return false;
+        }
+    }
+
+    private boolean save(String jszip, Path snapshot) {
+        try {
+            Map<String, Object> cached = cachedInputs(jszip);
+            if (cached == null || cached.isEmpty()) {
+                return false;
+            }
+            Path tmp = Files.createTempFile(dir, snapshot.getFileName().toString(), ".tmp");
+            try {
+                try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                    out.writeUTF(FORMAT);
+                    out.writeObject(new HashMap<>(cached));
+                }
+                Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            jsZipCache.accessed(snapshot);
+            return true;
+        } catch (ReflectiveOperationException | IOException | RuntimeException e) {
+            disable(e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the live map of inputs the store has cached for the given jszip, or null if it has none.
+     */
+    private Map<String, Object> cachedInputs(String jszip) throws ReflectiveOperationException {
+        Object entry = mapField(store, STORE_FIELD).get(jszip);
+        return entry == null ? null : mapField(entry, ENTRY_FIELD);
+    }
+
+    /**
+     * Returns the named map field of the given object, failing if it is missing or no longer a map, so a
+     * changed store turns snapshots off rather than filling the wrong map.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> mapField(Object owner, String name) throws ReflectiveOperationException {
+        Field field = owner.getClass().getDeclaredField(name);
+        if (!Map.class.isAssignableFrom(field.getType())) {
+            throw new NoSuchFieldException(owner.getClass().getName() + "." + name + " is not a map");
+        }
+        field.setAccessible(true);
+        return (Map<String, Object>) field.get(owner);
+    }
+
+    private void disable(Exception e) {
+        LOGGER.log(Level.WARNING, "Closure input snapshots aren't supported by this closure version, turning them off", e);
+        disabled = true;
+    }
+}
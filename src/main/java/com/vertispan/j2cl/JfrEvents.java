@@ -0,0 +1,78 @@
+package com.vertispan.j2cl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder events for the build. Only loaded by {@link BuildMetrics} once it has checked that JFR is
+ * present in this JVM, so everything else still runs on JVMs without it.
+ */
+class JfrEvents {
+
+    static Object beginPhase(String build, String phase) {
+        PhaseEvent event = new PhaseEvent();
+        event.build = build;
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+
+    static Object beginDependency(String dependency) {
+        DependencyEvent event = new DependencyEvent();
+        event.dependency = dependency;
+        event.begin();
+        return event;
+    }
+
+    static Object beginSubPhase(String build, String phase, String part) {
+        SubPhaseEvent event = new SubPhaseEvent();
+        event.build = build;
+        event.phase = phase;
+        event.part = part;
+        event.begin();
+        return event;
+    }
+
+    static void commit(Object event) {
+        ((Event) event).commit();
+    }
+
+    @Name("com.vertispan.j2cl.Phase")
+    @Label("Build Phase")
+    @Category({"J2CL", "Dev Mode"})
+    @Description("A single phase of setup or of a compile cycle")
+    static class PhaseEvent extends Event {
+        @Label("Build")
+        String build;
+
+        @Label("Phase")
+        String phase;
+    }
+
+    @Name("com.vertispan.j2cl.SubPhase")
+    @Label("Build Sub-phase")
+    @Category({"J2CL", "Dev Mode"})
+    @Description("One part of a phase that runs concurrently with its other parts, such as a transpile shard")
+    static class SubPhaseEvent extends Event {
+        @Label("Build")
+        String build;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Part")
+        String part;
+    }
+
+    @Name("com.vertispan.j2cl.Dependency")
+    @Label("Dependency")
+    @Category({"J2CL", "Dev Mode"})
+    @Description("Hashing, and if needed preprocessing and transpiling, a single classpath entry")
+    static class DependencyEvent extends Event {
+        @Label("Dependency")
+        String dependency;
+    }
+}
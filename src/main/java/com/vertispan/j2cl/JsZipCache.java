@@ -0,0 +1,260 @@
+package com.vertispan.j2cl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the jszip cache dir within a size budget, by deleting the least recently used files when it is over.
+ * <p>
+ * Uses are tracked in an index file in the cache dir, rather than through file times, which would change the
+ * fingerprints of the jszips. Files that aren't in the index are taken to have been last used when they were
+ * last modified.
+ * <p>
+ * Several processes can share the cache dir. Each one holds a shared lock on in-use.lock while it runs, and
+ * eviction only happens at startup, when that lock can be taken exclusively, so a file is never deleted while
+ * another process may be reading it. Updates to the index are made under a separate, short lived lock.
+ * <p>
+ * File locks are held by the whole jvm, so there is only ever one instance per dir, shared by every compiler in
+ * the jvm, and its locks are only taken by one thread at a time.
+ */
+public class JsZipCache {
+    private final static Logger LOGGER = Logger.getLogger(JsZipCache.class.getName());
+
+    // bump this if the index format changes, so old entries are ignored
+    private static final String VERSION = "access-1";
+    private static final String INDEX = "access.txt";
+    private static final String INDEX_LOCK = "access.lock";
+    private static final String IN_USE_LOCK = "in-use.lock";
+    private static final Set<String> NOT_EVICTABLE = new HashSet<>(Arrays.asList(INDEX, INDEX_LOCK, IN_USE_LOCK, "fingerprints.txt", "fingerprints-sha256.txt"));
+
+    // the cache for each real dir opened in this jvm
+    private static final Map<Path, JsZipCache> OPEN = new HashMap<>();
+
+    private final Path dir;
+    private final long maxBytes;
+    // last use of each file by this process, keyed on its path relative to the dir
+    private final Map<String, Long> accessed = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private FileChannel inUse;
+
+    private JsZipCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Opens the cache in the given dir, evicting the least recently used files if it is over the given number
+     * of bytes, and no other process is using it. A maxBytes of zero or less means there is no limit. If the
+     * dir was already opened in this jvm, that cache is returned, and nothing is evicted.
+     */
+    public static synchronized JsZipCache open(Path dir, long maxBytes) throws IOException {
+        Files.createDirectories(dir);
+        dir = dir.toRealPath();
+        JsZipCache existing = OPEN.get(dir);
+        if (existing != null) {
+            return existing;
+        }
+        JsZipCache cache = new JsZipCache(dir, maxBytes);
+        cache.inUse = FileChannel.open(dir.resolve(IN_USE_LOCK), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (maxBytes > 0) {
+            FileLock exclusive = cache.inUse.tryLock();
+            if (exclusive == null) {
+                LOGGER.info("Another process is using " + dir + ", not evicting anything this time");
+            } else {
+                try {
+                    cache.evict();
+                } finally {
+                    exclusive.release();
+                }
+            }
+        }
+        // held until the jvm exits, so no other process evicts what this one is using
+        cache.inUse.lock(0, Long.MAX_VALUE, true);
+        OPEN.put(dir, cache);
+        return cache;
+    }
+
+    /**
+     * Records that the given file in the cache was used, so it is kept over files that were used less recently.
+     */
+    public void accessed(Path file) {
+        accessed.put(dir.relativize(realPath(file)).toString(), System.currentTimeMillis());
+    }
+
+    public void hit() {
+        hits.incrementAndGet();
+    }
+
+    public void miss() {
+        misses.incrementAndGet();
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Logs the hits and misses so far, for all compilers using this cache.
+     */
+    public void logHitRatio() {
+        int total = hits.get() + misses.get();
+        if (total > 0) {
+            LOGGER.info(String.format("jszip cache %s: %d hits, %d misses (%.0f%% hit ratio)", dir, hits.get(), misses.get(), 100.0 * hits.get() / total));
+        }
+    }
+
+    /**
+     * Adds the uses recorded since the last save to the index.
+     */
+    public synchronized void saveAccesses() throws IOException {
+        if (accessed.isEmpty()) {
+            return;
+        }
+        Map<String, Long> saving = new HashMap<>(accessed);
+        try (FileChannel lockChannel = FileChannel.open(dir.resolve(INDEX_LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = lockChannel.lock()) {
+            Map<String, Long> index = readIndex();
+            for (Map.Entry<String, Long> entry : saving.entrySet()) {
+                index.merge(entry.getKey(), entry.getValue(), Math::max);
+            }
+            writeIndex(index);
+        }
+        accessed.keySet().removeAll(saving.keySet());
+    }
+
+    /**
+     * Deletes the least recently used files until the dir is within its budget. Must only be called while
+     * holding the exclusive in-use lock.
+     */
+    private synchronized void evict() throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(dir, 2)) {
+            files = stream.filter(Files::isRegularFile)
+                    .filter(file -> !NOT_EVICTABLE.contains(file.getFileName().toString()))
+                    .collect(Collectors.toList());
+        }
+        try (FileChannel lockChannel = FileChannel.open(dir.resolve(INDEX_LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = lockChannel.lock()) {
+            Map<String, Long> index = readIndex();
+            List<Entry> entries = new ArrayList<>();
+            long totalBytes = 0;
+            for (Path file : files) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                String key = dir.relativize(file).toString();
+                long lastUsed = Math.max(index.getOrDefault(key, 0L), attrs.lastModifiedTime().toMillis());
+                entries.add(new Entry(file, key, attrs.size(), lastUsed));
+                totalBytes += attrs.size();
+            }
+            if (totalBytes <= maxBytes) {
+                return;
+            }
+
+            entries.sort((a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+            long evictedBytes = 0;
+            int evicted = 0;
+            for (Entry entry : entries) {
+                if (totalBytes - evictedBytes <= maxBytes) {
+                    break;
+                }
+                if (Files.deleteIfExists(entry.file)) {
+                    evictedBytes += entry.size;
+                    evicted++;
+                }
+                index.remove(entry.key);
+            }
+            index.keySet().retainAll(entries.stream().filter(entry -> Files.exists(entry.file)).map(entry -> entry.key).collect(Collectors.toSet()));
+            writeIndex(index);
+            LOGGER.info("Evicted " + evicted + " files, " + evictedBytes + " bytes, from " + dir + " to get within " + maxBytes + " bytes");
+        }
+    }
+
+    // the dir is a real path, so files have to be too, to be relative to it
+    private static Path realPath(Path file) {
+        try {
+            return file.toRealPath();
+        } catch (IOException e) {
+            return file.toAbsolutePath();
+        }
+    }
+
+    private Map<String, Long> readIndex() throws IOException {
+        Map<String, Long> index = new HashMap<>();
+        Path indexFile = dir.resolve(INDEX);
+        if (!Files.exists(indexFile)) {
+            return index;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            if (!VERSION.equals(reader.readLine())) {
+                return index;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 2);
+                if (parts.length == 2) {
+                    index.put(parts[1], Long.parseLong(parts[0]));
+                }
+            }
+        }
+        return index;
+    }
+
+    private void writeIndex(Map<String, Long> index) throws IOException {
+        Path indexFile = dir.resolve(INDEX);
+        Path tmp = Files.createTempFile(dir, INDEX, ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(VERSION);
+            writer.newLine();
+            for (Map.Entry<String, Long> entry : index.entrySet()) {
+                writer.write(entry.getValue() + "\t" + entry.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Entry {
+        private final Path file;
+        private final String key;
+        private final long size;
+        private final long lastUsed;
+
+        private Entry(Path file, String key, long size, long lastUsed) {
+            this.file = file;
+            this.key = key;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
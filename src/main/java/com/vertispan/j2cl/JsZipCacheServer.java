@@ -0,0 +1,133 @@
+package com.vertispan.j2cl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Reference server for a shared jszip cache, see {@link RemoteJsZipCache}. Stores each uploaded file in a
+ * single directory under the name it was PUT to, and serves it back to GETs.
+ * <p>
+ * Names are content addressed, so a file is never changed once stored, and a second upload of the same name
+ * is ignored. Uploads are written to a temp file and moved into place, so a GET never sees half a file.
+ * There is no authentication or eviction, this is meant for a trusted network, such as a team's machines
+ * or a CI cluster. It only listens on the loopback interface unless another -bind address is given.
+ */
+public class JsZipCacheServer {
+    private final static Logger LOGGER = Logger.getLogger(JsZipCacheServer.class.getName());
+
+    // hash, version and suffix, nothing that could point outside the dir
+    private static final Pattern KEY = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9_.-]*");
+
+    @Option(name = "-port", usage = "port to serve the cache on. Defaults to 8090")
+    int port = 8090;
+
+    @Option(name = "-bind", usage = "address to listen on. Defaults to the loopback interface, so only " +
+            "this machine can use the cache, give 0.0.0.0 to listen on every interface")
+    String bind;
+
+    @Option(name = "-dir", usage = "directory to store the cached files in", required = true)
+    String dir;
+
+    private Path cacheDir;
+
+    public static void main(String[] args) throws IOException {
+        JsZipCacheServer server = new JsZipCacheServer();
+        CmdLineParser parser = new CmdLineParser(server);
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            e.printStackTrace();
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+        server.start();
+    }
+
+    public void start() throws IOException {
+        cacheDir = Paths.get(dir).toAbsolutePath();
+        Files.createDirectories(cacheDir);
+        InetAddress address = bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind);
+        HttpServer server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        LOGGER.info("Serving jszip cache " + cacheDir + " on http://" + address.getHostAddress() + ":" + server.getAddress().getPort() + "/");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String key = exchange.getRequestURI().getPath().substring(1);
+            if (!KEY.matcher(key).matches()) {
+                sendText(exchange, 400, "Bad key");
+                return;
+            }
+            Path file = cacheDir.resolve(key);
+            switch (exchange.getRequestMethod()) {
+                case "GET":
+                case "HEAD":
+                    if (!Files.isRegularFile(file)) {
+                        sendText(exchange, 404, "Not found");
+                        return;
+                    }
+                    exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                    if (exchange.getRequestMethod().equals("HEAD")) {
+                        exchange.sendResponseHeaders(200, -1);
+                        return;
+                    }
+                    exchange.sendResponseHeaders(200, Files.size(file));
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        Files.copy(file, out);
+                    }
+                    return;
+                case "PUT":
+                    if (Files.exists(file)) {
+                        // same name, same content, keep the first
+                        sendText(exchange, 200, "Already cached");
+                        return;
+                    }
+                    Path tmp = Files.createTempFile(cacheDir, key, ".tmp");
+                    try {
+                        try (InputStream in = exchange.getRequestBody()) {
+                            Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                        }
+                        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        Files.deleteIfExists(tmp);
+                    }
+                    LOGGER.info("Cached " + key);
+                    sendText(exchange, 201, "Cached");
+                    return;
+                default:
+                    sendText(exchange, 405, "Method not allowed");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -1,14 +1,25 @@
 package com.vertispan.j2cl;
 
 import java.io.IOException;
-import java.nio.file.attribute.FileTime;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.google.j2cl.frontend.FrontendUtils;
+import com.google.j2cl.generator.NativeJavaScriptFile;
 
 /**
  * Simple "dev mode" for j2cl+closure, based on the existing bash script. Lots of room for improvement, this
@@ -26,38 +37,171 @@ import com.google.j2cl.frontend.FrontendUtils;
  * think I got it right to pick up generated classes changes too...
  * <p>
  * Not so good:
- * o Not correctly recompiling classes that require it based on dependencies
+ * o Dependents of changed classes are found from bytecode, so a changed compile-time constant means a full rebuild
  * o Not at all convinced my javac wiring is correct
- * o Polling for changes
+ * o Relies on the platform WatchService, which on some OSes (osx) is itself polling under the hood
+ * o A cancelled compile can only stop between phases, jscomp runs to completion once started
  */
 public class ListeningCompiler {
 
     private final static Logger LOGGER = Logger.getLogger(ListeningCompiler.class.getName());
 
     public static void run(Gwt3Options options) throws IOException, InterruptedException, ExecutionException {
+        run(options, null);
+    }
+
+    /**
+     * Runs the compile loop, telling the server (if any) when each compile starts and finishes, so that it can
+     * hold requests until fresh output is ready.
+     */
+    public static void run(Gwt3Options options, DevServer server) throws IOException, InterruptedException, ExecutionException {
+        run(new SingleCompiler(options), server);
+    }
+
+    /**
+     * Runs the compile loop for the given compiler, which may share its caches with other compilers running
+     * their own loops in this jvm.
+     */
+    public static void run(SingleCompiler singleCompiler, DevServer server) throws IOException, InterruptedException, ExecutionException {
+        Gwt3Options options = singleCompiler.getOptions();
         LOGGER.setLevel(Level.INFO);
         LOGGER.info("Setup SingleCompiler");
-        SingleCompiler.setup(options);
-        FileTime lastModified = FileTime.fromMillis(0);
-        LOGGER.info("Begin listening");
-        while (true) {
-            // currently polling for changes.
-            // block until changes instead? easy to replace with filewatcher, just watch out for java9/osx issues...
-
-            long pollStarted = System.currentTimeMillis();
-            FileTime newerThan = lastModified;
-            List<FrontendUtils.FileInfo> modifiedJavaFiles = SingleCompiler.getModifiedJavaFiles(newerThan);
-            long pollTime = System.currentTimeMillis() - pollStarted;
-            // don't replace this until the loop finishes successfully, so we know the last time we started a successful compile
-            FileTime nextModifiedIfSuccessful = FileTime.fromMillis(System.currentTimeMillis());
-            if (modifiedJavaFiles.isEmpty()) {
-                Thread.sleep(100);
-                continue;
+        singleCompiler.setup();
+        // compiles run on their own thread, so that the loop can keep watching, and cancel a compile that newer
+        // changes have made obsolete
+        ExecutorService compiler = Executors.newSingleThreadExecutor();
+        try (SourceWatcher watcher = new SourceWatcher(options.getSourceDir())) {
+            // first build has to include everything that already exists
+            long started = System.currentTimeMillis();
+            List<FrontendUtils.FileInfo> allJavaFiles = javaFiles(watcher.getFiles());
+            if (server != null) {
+                server.compileStarted();
+            }
+            compile(singleCompiler, server, () -> singleCompiler.compile(allJavaFiles, Collections.emptyList(), watcher.getFiles()));
+            LOGGER.info("Initial compile of " + allJavaFiles.size() + " source classes finished in " + (System.currentTimeMillis() - started) + "ms");
+
+            LOGGER.info("Begin listening");
+            Future<?> cycle = null;
+            while (true) {
+                // block until the OS tells us something changed, and wait for the rest of the burst, holding new
+                // requests from the first change on so they don't get the output that is about to be replaced
+                SourceWatcher.Changes changes = watcher.take(options.getQuietPeriod(), options.getMaxWait(),
+                        server == null ? null : server::changesPending);
+                if (changes.isEmpty()) {
+                    LOGGER.info(changes.getEventCount() + " events cancelled each other out, nothing to compile");
+                    if (server != null) {
+                        server.changesDiscarded();
+                    }
+                    continue;
+                }
+                LOGGER.info("Changes detected: " + changes);
+
+                if (cycle != null && !cycle.isDone()) {
+                    // stale already, stop it so we can start over with these changes too
+                    LOGGER.info("Cancelling the compile in progress");
+                    singleCompiler.cancel();
+                }
+                await(cycle);
+                if (server != null) {
+                    // from the loop, so the cycle we just waited for can't finish after this
+                    server.compileStarted();
+                }
+
+                List<FrontendUtils.FileInfo> modifiedJavaFiles = javaFiles(changes);
+                cycle = compiler.submit(() -> {
+                    long compileStarted = System.currentTimeMillis();
+                    compile(singleCompiler, server, () -> singleCompiler.compile(modifiedJavaFiles, changes));
+                    LOGGER.info("Recompile of " + modifiedJavaFiles.size() + " source classes finished in " + (System.currentTimeMillis() - compileStarted) + "ms");
+                    return null;
+                });
+            }
+        } finally {
+            compiler.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the given compile cycle (if any) to finish or be cancelled. Failures have already been
+     * reported, and shouldn't stop us from listening for the next change.
+     */
+    private static void await(Future<?> cycle) throws InterruptedException {
+        if (cycle == null) {
+            return;
+        }
+        try {
+            cycle.get();
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof CancellationException)) {
+                LOGGER.log(Level.SEVERE, "Compile failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * One call to {@link SingleCompiler#compile}, with whichever arguments it needs.
+     */
+    private interface Cycle {
+        void compile() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Runs one compile, and tells the server (if any) when it is done. The caller has already marked it as started.
+     */
+    private static void compile(SingleCompiler singleCompiler, DevServer server, Cycle cycle) throws IOException, InterruptedException {
+        if (server == null) {
+            cycle.compile();
+            return;
+        }
+        boolean success = false;
+        boolean cancelled = false;
+        try {
+            cycle.compile();
+            success = singleCompiler.getLastMetrics().isSuccess();
+        } catch (CancellationException e) {
+            // the next compile starts right away, keep requests waiting for it
+            cancelled = true;
+            throw e;
+        } finally {
+            if (!cancelled) {
+                server.compileFinished(success);
+            }
+        }
+    }
+
+    /**
+     * Returns the java files to compile for the given changed paths, with a changed .native.js standing in for
+     * its java file.
+     */
+    public static List<FrontendUtils.FileInfo> javaFiles(Collection<Path> paths) {
+        // a .native.js and its java file both changing only compile it once
+        Set<String> javaPaths = new LinkedHashSet<>();
+        for (Path path : paths) {
+            String pathString = path.toString();
+            if (pathString.endsWith(NativeJavaScriptFile.NATIVE_EXTENSION)) {
+                // native js is only picked up when its java file is transpiled
+                pathString = pathString.substring(0, pathString.lastIndexOf(NativeJavaScriptFile.NATIVE_EXTENSION)) + ".java";
+                if (paths.contains(Paths.get(pathString)) || !Files.exists(Paths.get(pathString))) {
+                    continue;
+                }
+            }
+            if (pathString.endsWith(".java")) {
+                javaPaths.add(pathString);
             }
-            SingleCompiler.compile(modifiedJavaFiles);
-            LOGGER.info("Recompile of " + modifiedJavaFiles.size() + " source classes finished in " + (System.currentTimeMillis() - nextModifiedIfSuccessful.to(TimeUnit.MILLISECONDS)) + "ms");
-            LOGGER.info("poll: " + pollTime + "millis");
-            lastModified = nextModifiedIfSuccessful;
         }
+        List<FrontendUtils.FileInfo> javaFiles = new ArrayList<>();
+        for (String javaPath : javaPaths) {
+            javaFiles.add(FrontendUtils.FileInfo.create(javaPath, javaPath));
+        }
+        return javaFiles;
+    }
+
+    /**
+     * Returns the java files to compile for the created and modified files in the given changes, looked at
+     * together, so that a java file is only listed once when it and its .native.js are in different sets.
+     */
+    public static List<FrontendUtils.FileInfo> javaFiles(SourceWatcher.Changes changes) {
+        Set<Path> changed = new LinkedHashSet<>(changes.getCreated());
+        changed.addAll(changes.getModified());
+        return javaFiles(changed);
     }
 }
@@ -0,0 +1,63 @@
+package com.vertispan.j2cl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+
+/**
+ * Command line launcher for the "dev_mode" of several projects in one jvm, so that the dependencies they have
+ * in common are only transpiled, hashed and parsed once.
+ * <p>
+ * Each argument is a file with the DevMode arguments for one project, one per line (args4j's @file format).
+ * Projects that serve their output need a -port each.
+ */
+public class MultiDevMode {
+    private final static Logger LOGGER = Logger.getLogger(MultiDevMode.class.getName());
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: MultiDevMode <project args file>...");
+            System.exit(1);
+        }
+        SharedCaches sharedCaches = new SharedCaches();
+        List<Thread> projects = new ArrayList<>();
+        for (String argsFile : args) {
+            Gwt3Options options = new Gwt3OptionsImplBuilder().createGwt3OptionsImpl();
+            CmdLineParser parser = new CmdLineParser(options);
+            try {
+                parser.parseArgument("@" + argsFile);
+            } catch (CmdLineException e) {
+                System.err.println("Failed to read the arguments in " + argsFile);
+                e.printStackTrace();
+                parser.printUsage(System.err);
+                System.exit(1);
+            }
+            SingleCompiler compiler = new SingleCompiler(options, sharedCaches);
+            DevServer server = null;
+            if (options.getPort() > 0) {
+                // start serving right away, requests wait for the first compile to finish
+                server = new DevServer(options);
+                server.start();
+            }
+            DevServer projectServer = server;
+            Thread project = new Thread(() -> {
+                try {
+                    ListeningCompiler.run(compiler, projectServer);
+                } catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, "Dev mode for " + argsFile + " stopped", e);
+                }
+            }, "dev-mode-" + argsFile);
+            project.start();
+            projects.add(project);
+        }
+        for (Thread project : projects) {
+            project.join();
+        }
+    }
+
+}
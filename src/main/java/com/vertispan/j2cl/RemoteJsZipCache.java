@@ -0,0 +1,158 @@
+package com.vertispan.j2cl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Client for a jszip cache shared over http, such as {@link JsZipCacheServer}, so that a dependency built on
+ * one machine doesn't have to be built again on the others.
+ * <p>
+ * Built files are addressed by the SHA-256 of the jar they were built from, a key for everything else that
+ * went into building them, and their kind, so a GET either finds exactly the file that would have been built,
+ * or nothing. A PUT uploads one after it was built. Fetched files are checked to be complete, readable zips
+ * before they are used.
+ * <p>
+ * The cache is only ever an optimization: if it can't be reached, it is logged once and not asked again,
+ * and the dependencies are built locally as usual.
+ */
+public class RemoteJsZipCache {
+    private final static Logger LOGGER = Logger.getLogger(RemoteJsZipCache.class.getName());
+
+    private static final int TIMEOUT_MILLIS = 10_000;
+
+    private final String url;
+    private final String buildKey;
+    private volatile boolean unreachable;
+
+    /**
+     * @param url the root of the cache server
+     * @param buildKey identifies everything besides the jar that goes into building the files, such as the
+     *                 transpiler and the classpath
+     */
+    public RemoteJsZipCache(String url, String buildKey) {
+        this.url = url.endsWith("/") ? url : url + "/";
+        this.buildKey = buildKey;
+    }
+
+    /**
+     * Downloads the file built from the jar with the given SHA-256, with the given suffix, to the target, which
+     * is only replaced once complete and checked to be a valid zip.
+     *
+     * @return true if the cache had a valid file, false if not or the cache couldn't be reached
+     */
+    public boolean fetch(String jarHash, String suffix, Path target) {
+        if (unreachable) {
+            return false;
+        }
+        HttpURLConnection connection = null;
+        try {
+            connection = open(jarHash, suffix);
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                return false;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                LOGGER.warning("Remote jszip cache answered " + status + " for " + connection.getURL());
+                return false;
+            }
+            Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            try {
+                try (InputStream in = connection.getInputStream()) {
+                    Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                if (!isValidZip(tmp)) {
+                    LOGGER.warning("Remote jszip cache sent an invalid zip for " + connection.getURL() + ", building it locally");
+                    return false;
+                }
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            return true;
+        } catch (IOException e) {
+            unreachable(e);
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Uploads the given file, built from the jar with the given SHA-256, for other machines to fetch.
+     */
+    public void upload(String jarHash, String suffix, Path file) {
+        if (unreachable) {
+            return;
+        }
+        HttpURLConnection connection = null;
+        try {
+            connection = open(jarHash, suffix);
+            connection.setRequestMethod("PUT");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(Files.size(file));
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            try (OutputStream out = connection.getOutputStream()) {
+                Files.copy(file, out);
+            }
+            int status = connection.getResponseCode();
+            if (status / 100 != 2) {
+                LOGGER.warning("Remote jszip cache refused " + connection.getURL() + " with " + status);
+            }
+        } catch (IOException e) {
+            unreachable(e);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private HttpURLConnection open(String jarHash, String suffix) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + jarHash + "-" + buildKey + suffix).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    /**
+     * Reads every entry of the zip, which checks each one's crc, so a truncated or corrupt file is never used.
+     */
+    private static boolean isValidZip(Path file) {
+        byte[] buffer = new byte[8192];
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                if (entry.getName().startsWith("/") || entry.getName().contains("..")) {
+                    return false;
+                }
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    while (in.read(buffer) != -1) {
+                        // only checking it can be read
+                    }
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void unreachable(IOException e) {
+        if (!unreachable) {
+            unreachable = true;
+            LOGGER.warning("Remote jszip cache " + url + " can't be reached, building dependencies locally: " + e);
+        }
+    }
+}
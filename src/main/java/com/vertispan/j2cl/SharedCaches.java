@@ -0,0 +1,112 @@
+package com.vertispan.j2cl;
+
+import com.google.javascript.jscomp.PersistentInputStore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Caches for the work that only depends on the classpath, which can be shared by several {@link SingleCompiler}s
+ * in the same jvm, so that projects with mostly the same dependencies only pay for them once:
+ * <ul>
+ *     <li>the fingerprint index of each jszip cache dir, so jars are only hashed once</li>
+ *     <li>each dependency build, so two projects never build the same jar at once, and a jar one project
+ *     already built isn't even looked up on disk by the next</li>
+ *     <li>closure's input store, so each jszip is only parsed once, along with its snapshots</li>
+ * </ul>
+ * Closure's input store isn't thread safe, so compilers that share it take turns to use it, by synchronizing
+ * on the store. Each compiler's own intermediate js is kept in the same store, under its own paths.
+ */
+public class SharedCaches {
+    private final Map<Path, FingerprintIndex> fingerprints = new HashMap<>();
+    private final Map<String, Future<?>> dependencies = new ConcurrentHashMap<>();
+    private final PersistentInputStore inputStore = new PersistentInputStore();
+    private final Set<String> storedJszips = new HashSet<>();
+    private InputStoreSnapshots inputSnapshots;
+
+    /**
+     * Returns the fingerprint index kept in the given file, loading it the first time it is asked for.
+     */
+    public synchronized FingerprintIndex getFingerprints(Path indexFile) throws IOException {
+        return getFingerprints(indexFile, false);
+    }
+
+    /**
+     * Returns the fingerprint index kept in the given file, with SHA-256 hashes if secure, loading it the first
+     * time it is asked for.
+     */
+    public synchronized FingerprintIndex getFingerprints(Path indexFile, boolean secure) throws IOException {
+        FingerprintIndex index = fingerprints.get(indexFile);
+        if (index == null) {
+            index = secure ? FingerprintIndex.loadSecure(indexFile) : FingerprintIndex.load(indexFile);
+            fingerprints.put(indexFile, index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the result of building the dependency with the given key, running the build on this thread if
+     * no other compiler has started it yet, or waiting for the one that did.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T dependency(String key, Callable<T> build) throws IOException, InterruptedException {
+        FutureTask<T> task = new FutureTask<>(build);
+        Future<T> existing = (Future<T>) dependencies.putIfAbsent(key, task);
+        if (existing == null) {
+            task.run();
+            existing = task;
+        }
+        try {
+            return existing.get();
+        } catch (ExecutionException e) {
+            // let the next compiler try again, as a failed build isn't kept on disk either
+            dependencies.remove(key, existing);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the input store shared by every compiler using these caches. Synchronize on it while using it.
+     */
+    public PersistentInputStore getInputStore() {
+        return inputStore;
+    }
+
+    /**
+     * Adds the given jszip to the input store, unless another compiler already did, so its parsed inputs are
+     * kept rather than replaced.
+     */
+    public void addJszip(String jszip) {
+        synchronized (inputStore) {
+            if (storedJszips.add(jszip)) {
+                inputStore.addInput(jszip, "0");
+            }
+        }
+    }
+
+    /**
+     * Returns the snapshots for the shared input store, kept in the given dir unless another compiler already
+     * picked one. Uses of the snapshots are tracked in the given cache.
+     */
+    public synchronized InputStoreSnapshots getInputSnapshots(Path dir, JsZipCache jsZipCache) {
+        if (inputSnapshots == null) {
+            inputSnapshots = new InputStoreSnapshots(dir, inputStore, jsZipCache);
+        }
+        return inputSnapshots;
+    }
+}
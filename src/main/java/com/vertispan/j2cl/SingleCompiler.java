@@ -16,44 +16,70 @@
 package com.vertispan.j2cl;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
-import java.net.URI;
-import java.nio.file.FileSystem;
+import java.net.URISyntaxException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.j2cl.common.Problems;
 import com.google.j2cl.frontend.FrontendUtils;
 import com.google.j2cl.generator.NativeJavaScriptFile;
-import com.google.j2cl.tools.gwtincompatible.JavaPreprocessor;
 import com.google.j2cl.transpiler.J2clTranspiler;
 import com.google.j2cl.transpiler.J2clTranspilerOptions;
 import com.google.javascript.jscomp.CommandLineRunner;
 import com.google.javascript.jscomp.CompilationLevel;
 import com.google.javascript.jscomp.Compiler;
 import com.google.javascript.jscomp.PersistentInputStore;
+import com.vertispan.j2cl.tools.DependencyGraph;
+import com.vertispan.j2cl.tools.GwtIncompatiblePreprocessor;
 import com.vertispan.j2cl.tools.Javac;
+import com.vertispan.j2cl.tools.JsBundler;
+import com.vertispan.j2cl.tools.JsZipClasspath;
+import com.vertispan.j2cl.tools.JsZipWriter;
+import com.vertispan.j2cl.tools.PreprocessorCache;
 import org.apache.commons.codec.digest.DigestUtils;
 
 import static com.google.common.io.Files.createTempDir;
@@ -65,8 +91,11 @@ import static com.google.common.io.Files.createTempDir;
  * do invoke SingleCompiler.run(Gwt3Options)
  * <p>
  * For multiple/external usage
- * do invoke SingleCompiler.setup(Gwt3Options) once, and then
- * SingleCompiler.compile(FileTime) to execute a single compilation
+ * do create a SingleCompiler for the options, invoke setup() once, and then
+ * compile(List) to execute a single compilation
+ * <p>
+ * Each instance builds one project, and several can run in the same jvm. Give them the same
+ * {@link SharedCaches} to only transpile, hash and parse the dependencies they have in common once.
  */
 public class SingleCompiler {
 
@@ -76,30 +105,89 @@ public class SingleCompiler {
 
     private final static Logger LOGGER = Logger.getLogger(SingleCompiler.class.getName());
 
-    private static Gwt3Options options;
-    private static String intermediateJsPath;
-    private static Javac javac;
-    private static File generatedClassesPath;
-    private static J2clTranspilerOptions.Builder baseJ2clArgs;
-    private static List<String> baseClosureArgs;
-    private static PersistentInputStore persistentInputStore;
+    // how much preprocessed source to keep in memory, and in the -preprocessorCache dir if there is one
+    private static final long PREPROCESSOR_CACHE_BYTES = 64 * 1024 * 1024;
+    private static final long PREPROCESSOR_SPILL_BYTES = 1024 * 1024 * 1024;
+    // fewest java files worth giving their own transpile shard, each shard has to load the classpath again
+    private static final int MIN_FILES_PER_SHARD = 250;
+
+    private final Gwt3Options options;
+    private final SharedCaches sharedCaches;
+    private String intermediateJsPath;
+    private Javac javac;
+    private File generatedClassesPath;
+    private GwtIncompatiblePreprocessor preprocessor;
+    private BuildMetrics metrics;
+    private BuildMetrics lastMetrics;
+    // set to stop the compile in progress at the next point where it can safely stop
+    private volatile boolean cancelRequested;
+    // sources and generated files that the current compile has picked up, to try again after a failure or cancellation
+    private Set<String> cycleSources = new HashSet<>();
+    private List<Path> cycleGenerated = new ArrayList<>();
+    private final Set<String> carriedOver = new LinkedHashSet<>();
+    // changed files that a failed or cancelled compile may not have copied yet
+    private Collection<Path> cycleChangedFiles;
+    private final Set<Path> carriedOverFiles = new LinkedHashSet<>();
+    private PreprocessorCache preprocessorCache;
+    private J2clTranspilerOptions.Builder baseJ2clArgs;
+    private List<String> baseClosureArgs;
+    private PersistentInputStore persistentInputStore;
+    private JsBundler bundler;
+    private InputStoreSnapshots inputSnapshots;
+    private FingerprintIndex fingerprints;
+    private JsZipCache jsZipCache;
+    private RemoteJsZipCache remoteJsZipCache;
+    // SHA-256 hashes, for the keys shared through the remote cache
+    private FingerprintIndex secureFingerprints;
+    private ContentDigests jsDigests;
+    private ContentDigests plainJsDigests;
+    private ContentDigests generatedDigests;
+
+    public SingleCompiler(Gwt3Options options) {
+        this(options, new SharedCaches());
+    }
+
+    public SingleCompiler(Gwt3Options options, SharedCaches sharedCaches) {
+        this.options = options;
+        this.sharedCaches = sharedCaches;
+    }
 
     public static void run(Gwt3Options options) throws IOException, InterruptedException, ExecutionException {
         LOGGER.setLevel(Level.INFO);
         LOGGER.info("Setup");
-        setup(options);
+        SingleCompiler compiler = new SingleCompiler(options);
+        compiler.setup();
         LOGGER.info("Do compilation");
-        List<FrontendUtils.FileInfo> modifiedJavaFiles = getModifiedJavaFiles(FileTime.fromMillis(0));
-        compile(modifiedJavaFiles);
+        List<FrontendUtils.FileInfo> modifiedJavaFiles = compiler.getModifiedJavaFiles(FileTime.fromMillis(0));
+        compiler.compile(modifiedJavaFiles);
+    }
+
+    public Gwt3Options getOptions() {
+        return options;
     }
 
-    public static void setup(Gwt3Options options) throws IOException, ExecutionException, InterruptedException {
-        SingleCompiler.options = options;
+    public void setup() throws IOException, ExecutionException, InterruptedException {
+        BuildMetrics metrics = new BuildMetrics("setup");
+        boolean success = false;
+        try {
+            setup(metrics);
+            success = true;
+        } finally {
+            metrics.finish(success, options.getMetricsFile());
+            lastMetrics = metrics;
+        }
+    }
+
+    private void setup(BuildMetrics metrics) throws IOException, ExecutionException, InterruptedException {
         LOGGER.setLevel(Level.INFO);
         intermediateJsPath = options.getIntermediateJsPath();
         LOGGER.info("intermediate js from j2cl path " + intermediateJsPath);
         generatedClassesPath = createTempDir();//TODO allow this to be configurable
         LOGGER.info("generated source path " + generatedClassesPath);
+        File preprocessedSourcesPath = createTempDir();
+        LOGGER.info("preprocessed source path " + preprocessedSourcesPath);
+        preprocessorCache = new PreprocessorCache(PREPROCESSOR_CACHE_BYTES, options.getPreprocessorCacheDir() == null ? null : new File(options.getPreprocessorCacheDir()), PREPROCESSOR_SPILL_BYTES);
+        preprocessor = new GwtIncompatiblePreprocessor(preprocessedSourcesPath, preprocessorCache);
 
         File classesDirFile = options.getClassesDir();
         LOGGER.info("output class directory " + classesDirFile);
@@ -109,8 +197,6 @@ public class SingleCompiler {
             classpath.add(new File(path));
         }
 
-        javac = new Javac(generatedClassesPath, classpath, classesDirFile, options.getBootstrapClasspath());
-
         // put all j2clClasspath items into a list, we'll copy each time and add generated js
         baseJ2clArgs = J2clTranspilerOptions.newBuilder()
                 .setClasspaths(options.getBytecodeClasspath())
@@ -124,6 +210,8 @@ public class SingleCompiler {
 
         String intermediateJsOutput = options.getJsOutputFile();
         CompilationLevel compilationLevel = CompilationLevel.fromString(options.getCompilationLevel());
+        // a fast bundle skips closure, so there is nothing to load into the input store
+        boolean fastBundle = compilationLevel == CompilationLevel.BUNDLE && options.isFastBundle();
         baseClosureArgs = new ArrayList<>(Arrays.asList(
                 "--compilation_level", compilationLevel.name(),
                 "--js_output_file", intermediateJsOutput,// temp file to write to before we insert the missing line at the top
@@ -151,111 +239,382 @@ public class SingleCompiler {
 
         // configure a persistent input store - we'll reuse this and not the compiler for now, to cache the ASTs,
         // and still allow jscomp to be in modes other than BUNDLE
-        persistentInputStore = new PersistentInputStore();
+        persistentInputStore = sharedCaches.getInputStore();
+        jsDigests = new ContentDigests();
+        plainJsDigests = new ContentDigests();
+        generatedDigests = new ContentDigests();
 
         for (String zipPath : options.getJ2clClasspath()) {
             Preconditions.checkArgument(new File(zipPath).exists() && new File(zipPath).isFile(), "jszip doesn't exist! %s", zipPath);
 
             baseClosureArgs.add("--jszip");
             baseClosureArgs.add(zipPath);
-
-            // add JS zip file to the input store - no nice digest, since so far we don't support changes to the zip
-            persistentInputStore.addInput(zipPath, "0");
         }
         baseClosureArgs.add("--js");
         baseClosureArgs.add(intermediateJsPath + "/**/*.js");//precludes default package
 
         //pre-transpile all dependency sources to our cache dir, add those cached items to closure args
-        List<String> transpiledDependencies = handleDependencies(options, classpath, baseJ2clArgs, persistentInputStore);
-        baseClosureArgs.addAll(transpiledDependencies);
+        try (BuildMetrics.Phase phase = metrics.phase("dependencies")) {
+            // evicts the least recently used files first, if over budget, so nothing this run needs goes missing
+            jsZipCache = JsZipCache.open(Paths.get(options.getJsZipCacheDir()), options.getJsZipCacheMaxSize() * 1024 * 1024);
+            fingerprints = sharedCaches.getFingerprints(Paths.get(options.getJsZipCacheDir(), "fingerprints.txt"));
+            remoteJsZipCache = null;
+            if (options.getRemoteJsZipCache() != null) {
+                remoteJsZipCache = remoteJsZipCache(options.getRemoteJsZipCache());
+            }
+            Map<String, String> classesJars = new HashMap<>();
+            List<String> transpiledDependencies = handleDependencies(options, classpath, baseJ2clArgs, classesJars, metrics);
+            baseClosureArgs.addAll(transpiledDependencies);
+
+            // put the bytecode built from each dependency's preprocessed sources ahead of the jar itself, so
+            // javac and j2cl see the same members that were transpiled. Classes without sources still come
+            // from the jar.
+            List<String> bytecodeClasspath = new ArrayList<>();
+            for (String path : options.getBytecodeClasspath()) {
+                String classesJar = classesJars.get(path);
+                if (classesJar != null && !bytecodeClasspath.contains(classesJar)) {
+                    bytecodeClasspath.add(classesJar);
+                }
+                bytecodeClasspath.add(path);
+            }
+            options.getBytecodeClasspath().clear();
+            options.getBytecodeClasspath().addAll(bytecodeClasspath);
+            baseJ2clArgs.setClasspaths(options.getBytecodeClasspath());
+
+            metrics.count("jszipsFiltered", resolveClasspathJszips());
+
+            bundler = null;
+            inputSnapshots = null;
+            if (!fastBundle && options.isInputSnapshots()) {
+                // start reading the parsed jszips saved by the last run, they'll be needed by the first jscomp
+                Map<String, String> jszipHashes = new LinkedHashMap<>();
+                for (String jszip : closureJszips()) {
+                    jszipHashes.put(jszip, hash(new File(jszip)));
+                }
+                inputSnapshots = sharedCaches.getInputSnapshots(Paths.get(options.getJsZipCacheDir(), "inputs").toAbsolutePath(), jsZipCache);
+                inputSnapshots.loadAsync(jszipHashes);
+            }
+            fingerprints.save();
+            if (remoteJsZipCache != null) {
+                secureFingerprints.save();
+            }
+            jsZipCache.saveAccesses();
+            jsZipCache.logHitRatio();
+        }
+
+        classpath = new ArrayList<>();
+        for (String path : options.getBytecodeClasspath()) {
+            classpath.add(new File(path));
+        }
+        // j2cl reads bytecode from its classpath on disk, so class files still need to be written through
+        javac = new Javac(generatedClassesPath, classpath, classesDirFile, options.getBootstrapClasspath(), true);
+
+        if (fastBundle) {
+            // read the same jszips that closure would be given, once, rather than on every compile
+            try (BuildMetrics.Phase phase = metrics.phase("bundlerSetup")) {
+                bundler = new JsBundler(closureJszips(), options.getEntrypoint(), options.getDefine());
+            }
+        }
+    }
+
+    /**
+     * Replaces each jszip in the closure args that has js hidden by an earlier jszip on the classpath with a
+     * copy that only has the js closure should see, so that supersourced files aren't duplicates, then adds
+     * the jszips to the input store. The copies are kept in the cache, and shared with other compilers with
+     * the same jszips.
+     *
+     * @return the number of jszips replaced
+     */
+    private int resolveClasspathJszips() throws IOException, InterruptedException {
+        List<String> jszips = closureJszips();
+        StringBuilder classpath = new StringBuilder(JsZipClasspath.FORMAT).append('\n');
+        for (String jszip : jszips) {
+            classpath.append(jszip).append('\t').append(hash(new File(jszip))).append('\n');
+        }
+        String fingerprint = DigestUtils.md5Hex(classpath.toString());
+        Path dir = Paths.get(options.getJsZipCacheDir(), "classpath").toAbsolutePath();
+        Map<String, String> resolved = sharedCaches.dependency(dir + "/" + fingerprint,
+                () -> JsZipClasspath.resolve(jszips, fingerprint, dir, options.isStoredJsZips()));
+        jsZipCache.accessed(dir.resolve(fingerprint + ".txt"));
+
+        int replaced = 0;
+        for (int i = 0; i < baseClosureArgs.size() - 1; i++) {
+            if (baseClosureArgs.get(i).equals("--jszip")) {
+                String jszip = resolved.get(baseClosureArgs.get(++i));
+                if (!jszip.equals(baseClosureArgs.get(i))) {
+                    baseClosureArgs.set(i, jszip);
+                    jsZipCache.accessed(Paths.get(jszip));
+                    replaced++;
+                }
+                // add JS zip file to the input store - no nice digest, since so far we don't support changes to the zip
+                sharedCaches.addJszip(jszip);
+            }
+        }
+        return replaced;
+    }
+
+    private List<String> closureJszips() {
+        List<String> jszips = new ArrayList<>();
+        for (int i = 0; i < baseClosureArgs.size() - 1; i++) {
+            if (baseClosureArgs.get(i).equals("--jszip")) {
+                jszips.add(baseClosureArgs.get(++i));
+            }
+        }
+        return jszips;
     }
 
-    public static void compile(List<FrontendUtils.FileInfo> modifiedJavaFiles) throws InterruptedException, IOException {
+    public void compile(List<FrontendUtils.FileInfo> modifiedJavaFiles) throws InterruptedException, IOException {
+        compile(modifiedJavaFiles, Collections.emptyList());
+    }
+
+    /**
+     * Compiles the modified java files, after removing everything that was produced from the deleted files
+     * (class files, transpiled js, copied js). Any deleted file may be a java, native js or plain js file, and
+     * should be an absolute path in one of the source directories.
+     */
+    public void compile(List<FrontendUtils.FileInfo> modifiedJavaFiles, Collection<Path> deletedFiles) throws InterruptedException, IOException {
+        compile(modifiedJavaFiles, deletedFiles, null);
+    }
+
+    /**
+     * Compiles the modified java files for the given changes from a {@link SourceWatcher}, recording how many
+     * events it took to see them, as the watcher's counterpart to the files a scan looks at.
+     */
+    public void compile(List<FrontendUtils.FileInfo> modifiedJavaFiles, SourceWatcher.Changes changes) throws InterruptedException, IOException {
+        currentMetrics().count("watcherEvents", changes.getEventCount());
+        List<Path> changedFiles = new ArrayList<>(changes.getCreated());
+        changedFiles.addAll(changes.getModified());
+        compile(modifiedJavaFiles, changes.getDeleted(), changedFiles);
+    }
+
+    /**
+     * Like {@link #compile(List, Collection)}, also given every file created or modified in the source
+     * directories since the last compile (as absolute paths, like a {@link SourceWatcher} reports them), so
+     * that only the plain js among them is copied, instead of looking for changed js in every source
+     * directory. Pass null to look through the source directories.
+     */
+    public void compile(List<FrontendUtils.FileInfo> modifiedJavaFiles, Collection<Path> deletedFiles, Collection<Path> changedFiles) throws InterruptedException, IOException {
         LOGGER.setLevel(Level.INFO);
-        // collect native js files that we'll pass in a list to the transpiler.
-        List<FrontendUtils.FileInfo> nativeSources = new ArrayList<>();
-        for (String dir : options.getSourceDir()) {
-            Files.find(Paths.get(dir), Integer.MAX_VALUE, (path, attrs) -> shouldZip(path, modifiedJavaFiles)).forEach(file -> {
-                nativeSources.add(FrontendUtils.FileInfo.create(file.toString(), Paths.get(dir).toAbsolutePath().relativize(file.toAbsolutePath()).toString()));
-            });
+        BuildMetrics metrics = currentMetrics();
+        boolean success = false;
+        cancelRequested = false;
+        cycleSources = new HashSet<>();
+        cycleGenerated = new ArrayList<>();
+        cycleChangedFiles = changedFiles;
+        try {
+            success = compile(modifiedJavaFiles, deletedFiles, changedFiles, metrics);
+        } catch (CancellationException e) {
+            metrics.count("cancelled", 1);
+            LOGGER.info("Compile cancelled, " + cycleSources.size() + " java files will be compiled with the next changes");
+            throw e;
+        } finally {
+            if (!success) {
+                // failed or cancelled, so anything this cycle picked up may not have been compiled or transpiled,
+                // it has to be compiled again with the next changes, generated files included
+                carriedOver.addAll(cycleSources);
+                cycleGenerated.forEach(generatedDigests::remove);
+                if (cycleChangedFiles != null) {
+                    carriedOverFiles.addAll(cycleChangedFiles);
+                }
+            }
+            metrics.finish(success, options.getMetricsFile());
+            lastMetrics = metrics;
+            this.metrics = null;
+        }
+    }
+
+    private boolean compile(List<FrontendUtils.FileInfo> modifiedJavaFiles, Collection<Path> deletedFiles, Collection<Path> changedFiles, BuildMetrics metrics) throws IOException, InterruptedException {
+        metrics.count("javaFilesChanged", modifiedJavaFiles.size());
+        metrics.count("filesDeleted", deletedFiles.size());
+        try (BuildMetrics.Phase phase = metrics.phase("prune")) {
+            removeOutputs(deletedFiles, modifiedJavaFiles);
+        }
+        // pick up anything left from a failed or cancelled compile, unless it has since been deleted
+        int carried = addSources(modifiedJavaFiles, carriedOver);
+        carriedOver.clear();
+        if (carried > 0) {
+            LOGGER.info(carried + " java files carried over from a failed or cancelled compile");
         }
+        cycleSources.addAll(sourceKeys(modifiedJavaFiles));
+        checkCancelled();
 
         LOGGER.info(modifiedJavaFiles.size() + " updated java files");
 //            modifiedJavaFiles.forEach(System.out::println);
 
-        long javacStarted = System.currentTimeMillis();
+        // anything that directly references a type in the changed files is rebuilt too, so that changed signatures
+        // are picked up (or reported as errors) in callers and subclasses, both by javac and j2cl. If the api of a
+        // changed file turns out to have changed, this is widened after javac below
+        DependencyGraph dependencyGraph = javac.getDependencyGraph();
+        int dependents = addSources(modifiedJavaFiles, dependencyGraph.getDependents(sourceKeys(modifiedJavaFiles)));
+        LOGGER.info(dependents + " dependent java files");
+        metrics.count("dependentJavaFiles", dependents);
+        cycleSources.addAll(sourceKeys(modifiedJavaFiles));
 
-        javac.compile(modifiedJavaFiles);
-        if (!javac.compile(modifiedJavaFiles)) {
-            //error occurred, should have been logged, skip the rest of this loop
-            return;
+        try (BuildMetrics.Phase phase = metrics.phase("javac")) {
+            if (!modifiedJavaFiles.isEmpty() && !javac.compile(modifiedJavaFiles)) {
+                //error occurred, should have been logged, skip the rest of this loop
+                return false;
+            }
+            removeTranspiledJs(javac.getRemovedClasses());
+            if (!javac.hasChangedConstants()) {
+                // a changed api can reach past the direct referrers, through subtypes that inherit the changed
+                // members, keep going a ring at a time for as long as apis change
+                Set<String> compiled = sourceKeys(modifiedJavaFiles);
+                Set<String> apiChanged = new HashSet<>(javac.getApiChangedSources());
+                while (!apiChanged.isEmpty()) {
+                    List<FrontendUtils.FileInfo> widened = new ArrayList<>();
+                    addSources(widened, dependencyGraph.getApiDependents(apiChanged).stream().filter(source -> !compiled.contains(source)).collect(Collectors.toList()));
+                    if (widened.isEmpty()) {
+                        break;
+                    }
+                    LOGGER.info("Api of " + apiChanged.size() + " java files changed, recompiling " + widened.size() + " more dependents");
+                    metrics.count("dependentJavaFiles", widened.size());
+                    cycleSources.addAll(sourceKeys(widened));
+                    if (!javac.compile(widened)) {
+                        return false;
+                    }
+                    removeTranspiledJs(javac.getRemovedClasses());
+                    modifiedJavaFiles.addAll(widened);
+                    compiled.addAll(sourceKeys(widened));
+                    apiChanged = new HashSet<>(javac.getApiChangedSources());
+                }
+            }
+            if (javac.hasChangedConstants()) {
+                // constants are inlined by javac, so we can't tell who used them, fall back to rebuilding everything
+                Set<String> compiled = sourceKeys(modifiedJavaFiles);
+                List<FrontendUtils.FileInfo> remaining = new ArrayList<>();
+                addSources(remaining, dependencyGraph.getSources().stream().filter(source -> !compiled.contains(source)).collect(Collectors.toList()));
+                LOGGER.info("Compile-time constant changed, recompiling " + remaining.size() + " other java files");
+                if (!remaining.isEmpty() && !javac.compile(remaining)) {
+                    return false;
+                }
+                removeTranspiledJs(javac.getRemovedClasses());
+                modifiedJavaFiles.addAll(remaining);
+                cycleSources.addAll(sourceKeys(remaining));
+            }
+        }
+        metrics.count("javaFilesCompiled", modifiedJavaFiles.size());
+        checkCancelled();
+
+        // copy any JS in sources that aren't a native.js, if it is new or changed
+        try (BuildMetrics.Phase phase = metrics.phase("copyJs")) {
+            if (changedFiles == null) {
+                copyPlainJs(metrics);
+            } else {
+                copyPlainJs(changedFiles, metrics);
+            }
         }
-        long javacTime = System.currentTimeMillis() - javacStarted;
-
-        // blindly copy any JS in sources that aren't a native.js
-        // TODO be less "blind" about this, only copy changed files?
-        Iterable<String> dirs = () -> Stream.concat(Stream.of(generatedClassesPath.getAbsolutePath()), options.getSourceDir().stream()).iterator();
-        for (String dir : dirs) {
-            Files.find(Paths.get(dir), Integer.MAX_VALUE, (path, attrs) -> jsMatcher.matches(path) && !nativeJsMatcher.matches(path))
-                    .forEach(path -> {
-                        try {
-                            final Path target = Paths.get(options.getIntermediateJsPath(), Paths.get(dir).toAbsolutePath().relativize(path.toAbsolutePath()).toString());
-                            Files.createDirectories(target.getParent());
-                            // using StandardCopyOption.REPLACE_EXISTING seems overly pessimistic, but i can't get it to work without it
-                            Files.copy(path, target, StandardCopyOption.REPLACE_EXISTING);
-                        } catch (IOException e) {
-                            throw new RuntimeException("failed to copy plain js", e);
+        checkCancelled();
+
+        // add generated java files, if they were regenerated with different content, or reference something
+        // that changed, and copy generated plain js
+        Set<String> generatedDependents = dependencyGraph.getDependents(sourceKeys(modifiedJavaFiles));
+        int[] generated = new int[2];
+        try (BuildMetrics.Phase phase = metrics.phase("scan")) {
+            Files.walkFileTree(generatedClassesPath.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (isPlainJs(file)) {
+                        countCopied(copyPlainJs(generatedClassesPath.toPath(), file, attrs), metrics);
+                    } else if (javaMatcher.matches(file)) {
+                        if (generatedDigests.update(file, attrs) || generatedDependents.contains(Javac.sourceKey(file.toString()))) {
+                            modifiedJavaFiles.add(FrontendUtils.FileInfo.create(file.toString(), file.toString()));
+                            cycleGenerated.add(file);
+                            generated[0]++;
+                        } else {
+                            generated[1]++;
                         }
-                    });
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
         }
+        LOGGER.info(generated[0] + " changed generated java files, " + generated[1] + " unchanged");
+        Map<String, Long> counters = metrics.getCounters();
+        LOGGER.info("Copied " + counters.getOrDefault("plainJsCopied", 0L) + " plain js files, " + counters.getOrDefault("plainJsBytesCopied", 0L) + " bytes");
+        metrics.count("generatedFilesChanged", generated[0]);
+        metrics.count("generatedFilesUnchanged", generated[1]);
+        checkCancelled();
 
-        // add all modified Java files
-        //TODO don't just use all generated classes, but look for changes maybe?
+        // run preprocessor on changed files, straight into a directory that j2cl can read from
+        Problems preprocessResult = new Problems();
+        List<FrontendUtils.FileInfo> processedJavaFiles;
+        int cacheHits = preprocessorCache.getHits();
+        int cacheMisses = preprocessorCache.getMisses();
+        try (BuildMetrics.Phase phase = metrics.phase("preprocess")) {
+            processedJavaFiles = preprocessor.preprocess(withRelativePaths(modifiedJavaFiles), preprocessResult);
+        }
+        metrics.count("preprocessorCacheHits", preprocessorCache.getHits() - cacheHits);
+        metrics.count("preprocessorCacheMisses", preprocessorCache.getMisses() - cacheMisses);
+        if (preprocessResult.reportAndGetExitCode(System.err) != 0) {
+            generatedDigests = new ContentDigests();
+            return false;
+        }
+        checkCancelled();
 
-        Files.find(Paths.get(generatedClassesPath.getAbsolutePath()),
-                   Integer.MAX_VALUE,
-                   (filePath, fileAttr) ->
-                           !fileAttr.isDirectory()
-                                   && javaMatcher.matches(filePath)
-                /*TODO check modified?*/
-        ).forEach(file -> modifiedJavaFiles.add(FrontendUtils.FileInfo.create(file.toString(), file.toString())));
+        metrics.count("javaFilesTranspiled", processedJavaFiles.size());
 
-        // run preprocessor on changed files
-        File processedZip = File.createTempFile("preprocessed", ".srcjar");
-        try (FileSystem out = FrontendUtils.initZipOutput(processedZip.getAbsolutePath(), new Problems())) {
-            JavaPreprocessor.preprocessFiles(modifiedJavaFiles, out.getPath("/"), new Problems());
-        }
+        // j2cl only needs the native js of the files it transpiles, look those up rather than every source dir
+        List<FrontendUtils.FileInfo> nativeSources = nativeSources(processedJavaFiles);
+        metrics.count("nativeJsFiles", nativeSources.size());
 
-        J2clTranspilerOptions.Builder j2clArgs = baseJ2clArgs.build().toBuilder();
-        if (!nativeSources.isEmpty()) {
-            j2clArgs.setNativeSources(nativeSources);
+        boolean transpiled;
+        try (BuildMetrics.Phase phase = metrics.phase("j2cl")) {
+            transpiled = transpileSharded(processedJavaFiles, nativeSources, metrics);
         }
-        List<FrontendUtils.FileInfo> processedJavaFiles = FrontendUtils.getAllSources(Collections.singletonList(processedZip.getAbsolutePath()), new Problems())
-                .filter(f -> f.sourcePath().endsWith(".java"))
-                .collect(Collectors.toList());
-        j2clArgs.setSources(processedJavaFiles);
 
-        long j2clStarted = System.currentTimeMillis();
-        Problems transpileResult = transpile(j2clArgs.build());
+        if (!transpiled) {
+            //print problems
+            // forget generated files, so they're all transpiled again next time
+            generatedDigests = new ContentDigests();
+            return false;
+        }
 
-        processedZip.delete();
+        checkCancelled();
 
-        if (transpileResult.reportAndGetExitCode(System.err) != 0) {
-            //print problems
-            return;
+        if (bundler != null) {
+            try (BuildMetrics.Phase phase = metrics.phase("bundle")) {
+                metrics.count("bundleFilesRead", bundler.bundle(Paths.get(intermediateJsPath), Paths.get(options.getJsOutputFile())));
+                return true;
+            }
         }
-        long j2clTime = System.currentTimeMillis() - j2clStarted;
 
         // TODO copy the generated .js files, so that we only feed the updated ones the jscomp, stop messing around with args...
-        long jscompStarted = System.currentTimeMillis();
-        if (!jscomp(baseClosureArgs, persistentInputStore, intermediateJsPath)) {
-            return;
+        try (BuildMetrics.Phase phase = metrics.phase("jscomp")) {
+            return jscomp(baseClosureArgs, persistentInputStore, intermediateJsPath, metrics);
         }
-        long jscompTime = System.currentTimeMillis() - jscompStarted;
+    }
+
+    /**
+     * Asks the compile in progress, if any, to stop at the next point where it can do so without leaving the
+     * output directories or caches inconsistent. The cancelled compile throws a {@link CancellationException},
+     * and the sources it was working on are compiled along with the next changes.
+     */
+    public void cancel() {
+        cancelRequested = true;
+    }
 
-        LOGGER.info("javac: " + javacTime + "millis");
-        LOGGER.info("j2cl: " + j2clTime + "millis");
-        LOGGER.info("jscomp: " + jscompTime + "millis");
+    private void checkCancelled() {
+        if (cancelRequested) {
+            throw new CancellationException("Compile cancelled by newer changes");
+        }
+    }
+
+    /**
+     * Returns the metrics of the last finished setup or compile cycle, or null if nothing has run yet.
+     */
+    public BuildMetrics getLastMetrics() {
+        return lastMetrics;
+    }
+
+    /**
+     * Returns the metrics for the compile cycle that is in progress, starting a new one if needed.
+     */
+    private BuildMetrics currentMetrics() {
+        if (metrics == null) {
+            metrics = new BuildMetrics("compile");
+        }
+        return metrics;
     }
 
     /**
@@ -264,127 +623,605 @@ public class SingleCompiler {
      * @return List of modified files, eventually empty
      * @throws IOException
      */
-    protected static List<FrontendUtils.FileInfo> getModifiedJavaFiles(FileTime newerThan) throws IOException {
+    protected List<FrontendUtils.FileInfo> getModifiedJavaFiles(FileTime newerThan) throws IOException {
         List<FrontendUtils.FileInfo> toReturn = new ArrayList<>();
+        BuildMetrics metrics = currentMetrics();
+        long[] scanned = new long[1];
         //this isn't quite right - should check for _at least one_ newer than lastModified, and if so, recompile all
         //newer than lastSuccess
         //also, should look for .native.js too, but not collect them
-        for (String dir : options.getSourceDir()) {
-            Files.find(Paths.get(dir),
-                       Integer.MAX_VALUE,
-                       (filePath, fileAttr) -> !fileAttr.isDirectory()
-                               && fileAttr.lastModifiedTime().compareTo(newerThan) > 0
-                               && javaMatcher.matches(filePath))
-                    .forEach(file -> toReturn.add(FrontendUtils.FileInfo.create(file.toString(), file.toString())));
+        try (BuildMetrics.Phase phase = metrics.phase("scan")) {
+            for (String dir : options.getSourceDir()) {
+                Files.walkFileTree(Paths.get(dir), new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        scanned[0]++;
+                        if (attrs.lastModifiedTime().compareTo(newerThan) > 0 && javaMatcher.matches(file)) {
+                            toReturn.add(FrontendUtils.FileInfo.create(file.toString(), file.toString()));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
         }
+        metrics.count("filesScanned", scanned[0]);
         return toReturn;
     }
 
-    private static List<String> handleDependencies(Gwt3Options options, List<File> classpath, J2clTranspilerOptions.Builder baseJ2clArgs, PersistentInputStore persistentInputStore) throws IOException, InterruptedException, ExecutionException {
-        List<String> additionalClosureArgs = new ArrayList<>();
-        for (File file : classpath) {
-            if (!file.exists()) {
-                throw new IllegalStateException(file + " does not exist!");
+    /**
+     * Copies each plain (not native) js file from the source directories into the intermediate directory,
+     * looking through every file in them. Generated js is copied as the generated sources are scanned.
+     */
+    private void copyPlainJs(BuildMetrics metrics) throws IOException {
+        for (String dir : options.getSourceDir()) {
+            Path sourceDir = Paths.get(dir).toAbsolutePath();
+            Files.walkFileTree(sourceDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                    if (isPlainJs(path)) {
+                        countCopied(copyPlainJs(sourceDir, path, attrs), metrics);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    /**
+     * Copies the plain js among the given changed files, and any left over from a failed or cancelled compile,
+     * from the source directory each is in into the intermediate directory.
+     */
+    private void copyPlainJs(Collection<Path> changedFiles, BuildMetrics metrics) throws IOException {
+        Set<Path> files = new LinkedHashSet<>(carriedOverFiles);
+        carriedOverFiles.clear();
+        files.addAll(changedFiles);
+        List<Path> sourceDirs = options.getSourceDir().stream().map(dir -> Paths.get(dir).toAbsolutePath().normalize()).collect(Collectors.toList());
+        for (Path path : files) {
+            if (!isPlainJs(path)) {
+                continue;
             }
-            //TODO maybe skip certain files that have already been transpiled
-            if (file.isDirectory()) {
-                continue;//...hacky, but probably just classes dir
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                // deleted since, its delete will be handled with the next changes
+                continue;
+            }
+            for (Path sourceDir : sourceDirs) {
+                if (path.startsWith(sourceDir)) {
+                    countCopied(copyPlainJs(sourceDir, path, attrs), metrics);
+                    break;
+                }
             }
+        }
+    }
 
-            // hash the file, see if we already have one
-            String hash = hash(file);
-            String jszipOut = options.getJsZipCacheDir() + "/" + hash + "-" + file.getName() + ".js.zip";
-            LOGGER.info(file + " will be built to " + jszipOut);
-            File jszipOutFile = new File(jszipOut);
-            if (jszipOutFile.exists()) {
-                additionalClosureArgs.add("--jszip");
-                additionalClosureArgs.add(jszipOut);
+    private static boolean isPlainJs(Path path) {
+        return jsMatcher.matches(path) && !nativeJsMatcher.matches(path);
+    }
+
+    /**
+     * Copies one plain js file to the same relative path in the intermediate directory. Files that haven't
+     * changed since the last copy are skipped without being read, and if the target already has the same
+     * content it isn't rewritten, so its mtime and digest stay put.
+     *
+     * @return the number of bytes copied, or -1 if it was up to date
+     */
+    private long copyPlainJs(Path sourceDir, Path path, BasicFileAttributes attrs) throws IOException {
+        final Path target = Paths.get(intermediateJsPath, sourceDir.relativize(path.toAbsolutePath()).toString());
+        if (!plainJsDigests.update(path, attrs) && Files.exists(target)) {
+            return -1;
+        }
+        byte[] content = Files.readAllBytes(path);
+        if (Files.exists(target) && Files.size(target) == content.length && Arrays.equals(content, Files.readAllBytes(target))) {
+            return -1;
+        }
+        Files.createDirectories(target.getParent());
+        Files.write(target, content);
+        LOGGER.fine("Copied " + path + ", " + content.length + " bytes");
+        return content.length;
+    }
+
+    private static void countCopied(long bytes, BuildMetrics metrics) {
+        if (bytes >= 0) {
+            metrics.count("plainJsCopied", 1);
+            metrics.count("plainJsBytesCopied", bytes);
+        }
+    }
 
-                persistentInputStore.addInput(jszipOut, "0");
-                continue;//already exists, we'll use it
+    /**
+     * Deletes whatever was generated from the given deleted source files, and adds any sources that referenced
+     * them to the list to recompile, so that they can fail (or succeed, if they were also changed).
+     */
+    private void removeOutputs(Collection<Path> deletedFiles, List<FrontendUtils.FileInfo> modifiedJavaFiles) throws IOException {
+        if (deletedFiles.isEmpty()) {
+            return;
+        }
+        DependencyGraph dependencyGraph = javac.getDependencyGraph();
+        for (Path deleted : deletedFiles) {
+            String pathString = deleted.toString();
+            if (javaMatcher.matches(deleted)) {
+                String source = Javac.sourceKey(pathString);
+                // its whole api is gone, so anything that could see it through a subtype has to be checked too
+                addSources(modifiedJavaFiles, dependencyGraph.getApiDependents(Collections.singleton(source)));
+                removeTranspiledJs(javac.remove(source));
+            } else if (nativeJsMatcher.matches(deleted)) {
+                // the companion java file has to be transpiled again without it
+                String companion = pathString.substring(0, pathString.lastIndexOf(NativeJavaScriptFile.NATIVE_EXTENSION)) + ".java";
+                addSources(modifiedJavaFiles, Collections.singleton(Javac.sourceKey(companion)));
+            } else if (jsMatcher.matches(deleted)) {
+                plainJsDigests.remove(deleted);
+                for (String dir : options.getSourceDir()) {
+                    Path sourceDir = Paths.get(Javac.sourceKey(dir));
+                    if (deleted.startsWith(sourceDir)) {
+                        removeIntermediateJs(Paths.get(intermediateJsPath).resolve(sourceDir.relativize(deleted).toString()));
+                    }
+                }
             }
+        }
+    }
 
-            // run preprocessor
-            File processed = File.createTempFile("preprocessed", ".srcjar");
-            try (FileSystem out = FrontendUtils.initZipOutput(processed.getAbsolutePath(), new Problems())) {
-                ImmutableList<FrontendUtils.FileInfo> allSources = FrontendUtils.getAllSources(Collections.singletonList(file.getAbsolutePath()), new Problems())
-                        .filter(f -> f.sourcePath().endsWith(".java"))
-                        .collect(ImmutableList.toImmutableList());
-                if (allSources.isEmpty()) {
-                    LOGGER.info("no sources in file " + file);
+    /**
+     * Deletes the js that j2cl wrote for each of the given classes, i.e. everything in the class's package
+     * directory named after it, like Foo.java.js, Foo.impl.java.js and Foo.js.map.
+     */
+    private void removeTranspiledJs(Collection<String> classNames) throws IOException {
+        for (String className : classNames) {
+            int lastDot = className.lastIndexOf('.');
+            Path packageDir = Paths.get(intermediateJsPath, className.substring(0, lastDot + 1).replace('.', File.separatorChar));
+            if (!Files.isDirectory(packageDir)) {
+                continue;
+            }
+            String prefix = className.substring(lastDot + 1) + ".";
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(packageDir, file -> file.getFileName().toString().startsWith(prefix))) {
+                for (Path file : files) {
+                    removeIntermediateJs(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes a file from the intermediate js directory, and drops whatever the input store has cached for it.
+     */
+    private void removeIntermediateJs(Path file) throws IOException {
+        if (!Files.deleteIfExists(file)) {
+            return;
+        }
+        LOGGER.fine("Removed stale output " + file);
+        if (jsDigests.remove(file) != null) {
+            // there's no way to remove an input, but a new digest replaces the entry and frees its parsed AST
+            synchronized (persistentInputStore) {
+                persistentInputStore.addInput(file.toString(), "deleted");
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of each file with its originalPath relative to the source or generated source directory
+     * that it is in, so that it can be written to the same relative path by the preprocessor.
+     */
+    private List<FrontendUtils.FileInfo> withRelativePaths(List<FrontendUtils.FileInfo> javaFiles) {
+        List<Path> dirs = Stream.concat(Stream.of(generatedClassesPath.getAbsolutePath()), options.getSourceDir().stream())
+                .map(dir -> Paths.get(Javac.sourceKey(dir)))
+                .collect(Collectors.toList());
+        List<FrontendUtils.FileInfo> result = new ArrayList<>();
+        for (FrontendUtils.FileInfo javaFile : javaFiles) {
+            Path path = Paths.get(Javac.sourceKey(javaFile.sourcePath()));
+            Path relative = dirs.stream()
+                    .filter(path::startsWith)
+                    .findFirst()
+                    .map(dir -> dir.relativize(path))
+                    .orElseThrow(() -> new IllegalStateException("Not in a source directory " + path));
+            result.add(FrontendUtils.FileInfo.create(javaFile.sourcePath(), relative.toString()));
+        }
+        return result;
+    }
+
+    private static Set<String> sourceKeys(List<FrontendUtils.FileInfo> javaFiles) {
+        return javaFiles.stream().map(file -> Javac.sourceKey(file.sourcePath())).collect(Collectors.toSet());
+    }
+
+    /**
+     * Adds each of the given sources to the list of files to compile, unless it is already there, has since
+     * been deleted, or isn't in one of the source directories (i.e. was generated by an annotation processor,
+     * and will be regenerated).
+     *
+     * @return the number of files added
+     */
+    private int addSources(List<FrontendUtils.FileInfo> javaFiles, Collection<String> sources) {
+        Set<String> existing = sourceKeys(javaFiles);
+        List<Path> sourceDirs = options.getSourceDir().stream().map(dir -> Paths.get(Javac.sourceKey(dir))).collect(Collectors.toList());
+        int added = 0;
+        for (String source : sources) {
+            Path path = Paths.get(source);
+            if (existing.contains(source) || !Files.exists(path) || sourceDirs.stream().noneMatch(path::startsWith)) {
+                continue;
+            }
+            javaFiles.add(FrontendUtils.FileInfo.create(source, source));
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * Pre-transpiles each classpath jar with sources, in parallel, adding the bytecode compiled from each to
+     * classesJars, keyed on the jar's path.
+     *
+     * @return the closure args for the jszips built, in classpath order
+     */
+    private List<String> handleDependencies(Gwt3Options options, List<File> classpath, J2clTranspilerOptions.Builder baseJ2clArgs, Map<String, String> classesJars, BuildMetrics metrics) throws IOException, InterruptedException, ExecutionException {
+        int threads = options.getDependencyThreads();
+        LOGGER.info("Pre-transpiling dependencies with " + threads + " threads");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // submit in classpath order, and collect in that same order, so the closure args are stable
+            List<Future<BuiltDependency>> dependencies = new ArrayList<>();
+            for (File file : classpath) {
+                if (!file.exists()) {
+                    throw new IllegalStateException(file + " does not exist!");
+                }
+                //TODO maybe skip certain files that have already been transpiled
+                if (file.isDirectory()) {
+                    continue;//...hacky, but probably just classes dir
+                }
+                dependencies.add(executor.submit(() -> {
+                    // time spent on each thread, so this can add up to more than the dependencies phase itself
+                    try (BuildMetrics.Phase phase = metrics.dependency("dependencyThreads", file.getPath())) {
+                        // another compiler in this jvm may have built it already, or be building it right now
+                        String key = options.getJsZipCacheDir() + "/" + hash(file) + "-" + file.getName();
+                        return sharedCaches.dependency(key, () -> handleDependency(options, file, classpath, baseJ2clArgs, metrics));
+                    }
+                }));
+            }
+
+            List<String> additionalClosureArgs = new ArrayList<>();
+            for (Future<BuiltDependency> future : dependencies) {
+                BuiltDependency dependency = future.get();
+                if (dependency.classesJar != null) {
+                    classesJars.put(dependency.file.getPath(), dependency.classesJar);
+                    jsZipCache.accessed(Paths.get(dependency.classesJar));
+                }
+                if (dependency.jszip == null) {
                     continue;
                 }
-                JavaPreprocessor.preprocessFiles(allSources, out.getPath("/"), new Problems());
+                jsZipCache.accessed(Paths.get(dependency.jszip));
+                additionalClosureArgs.add("--jszip");
+                additionalClosureArgs.add(dependency.jszip);
             }
+            return additionalClosureArgs;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-            //TODO javac these first, so we have consistent bytecode, and use that to rebuild the classpath
+    /**
+     * Preprocesses, compiles and transpiles a single dependency to a classes jar and a jszip in the cache dir,
+     * unless they are already there. Runs on the dependency executor, so must not touch any shared state.
+     *
+     * @return the jszip to pass to closure and the classes jar, either of which is null if it couldn't be built
+     */
+    private BuiltDependency handleDependency(Gwt3Options options, File file, List<File> classpath, J2clTranspilerOptions.Builder baseJ2clArgs, BuildMetrics metrics) throws IOException {
+        long started = System.currentTimeMillis();
+        // hash the file, see if we already have one
+        String hash = hash(file);
+        String jszipOut = options.getJsZipCacheDir() + "/" + hash + "-" + file.getName() + ".js.zip";
+        File jszipOutFile = new File(jszipOut);
+        File classesJarFile = new File(options.getJsZipCacheDir(), hash + "-" + file.getName() + ".classes.jar");
+        // left in place of the classes jar when javac couldn't build it, so it isn't tried again on every start
+        File classesFailedFile = new File(options.getJsZipCacheDir(), hash + "-" + file.getName() + ".classes.failed");
+        if (jszipOutFile.exists() && (classesJarFile.exists() || classesFailedFile.exists())) {
+            LOGGER.info(file + " already built to " + jszipOut);
+            metrics.count("dependenciesCached", 1);
+            jsZipCache.hit();
+            if (!classesJarFile.exists()) {
+                // the jar's own bytecode is used instead
+                jsZipCache.accessed(classesFailedFile.toPath());
+                return new BuiltDependency(file, jszipOut, null);
+            }
+            return new BuiltDependency(file, jszipOut, classesJarFile.getPath());//already exists, we'll use it
+        }
+        jsZipCache.miss();
+        String remoteHash = remoteJsZipCache == null ? null : secureFingerprints.hash(file);
+        if (remoteJsZipCache != null
+                && (jszipOutFile.exists() || remoteJsZipCache.fetch(remoteHash, ".js.zip", jszipOutFile.toPath()))
+                && (classesJarFile.exists() || remoteJsZipCache.fetch(remoteHash, ".classes.jar", classesJarFile.toPath()))) {
+            LOGGER.info(file + " fetched from the remote cache to " + jszipOut);
+            metrics.count("dependenciesFetched", 1);
+            return new BuiltDependency(file, jszipOut, classesJarFile.getPath());
+        }
+        LOGGER.info(file + " will be built to " + jszipOut);
 
-            J2clTranspilerOptions.Builder pretranspile = baseJ2clArgs.build().toBuilder();
-            // in theory, we only compile with the dependencies for this particular dep
-//            pretranspile.setClasspaths(Arrays.asList(options.getBytecodeClasspath().split(":")));
-            pretranspile.setOutput(FrontendUtils.initZipOutput(jszipOut, new Problems()).getPath("/"));
-            pretranspile.setNativeSources(FrontendUtils.getAllSources(Collections.singletonList(file.getAbsolutePath()), new Problems())
-                                                  .filter(p -> p.sourcePath().endsWith(".native.js"))
-                                                  .collect(ImmutableList.toImmutableList()));
-            List<FrontendUtils.FileInfo> processedJavaFiles = FrontendUtils.getAllSources(Collections.singletonList(processed.getAbsolutePath()), new Problems())
+        // run preprocessor, into a temp dir that j2cl can read from directly
+        File processed = createTempDir();
+        // j2cl needs a path to write to, which is then streamed into the jszip along with the jar's plain js
+        File transpiled = createTempDir();
+        String classesJar = null;
+        try {
+            // extracts the jar once, for both java and native js
+            List<FrontendUtils.FileInfo> allSources = FrontendUtils.getAllSources(Collections.singletonList(file.getAbsolutePath()), new Problems())
+                    .collect(Collectors.toList());
+            List<FrontendUtils.FileInfo> javaSources = allSources.stream()
                     .filter(f -> f.sourcePath().endsWith(".java"))
-                    .collect(ImmutableList.toImmutableList());
+                    .collect(Collectors.toList());
+            if (javaSources.isEmpty()) {
+                LOGGER.info("no sources in file " + file);
+                return new BuiltDependency(file, null, null);
+            }
+            List<FrontendUtils.FileInfo> processedJavaFiles = new GwtIncompatiblePreprocessor(processed).preprocess(javaSources, new Problems());
             if (processedJavaFiles.isEmpty()) {
                 LOGGER.info("no sources left in " + file + " after preprocessing");
-                continue;
+                return new BuiltDependency(file, null, null);
 //            } else {
 //                processedJavaFiles.forEach(f -> LOGGER.info("\t" + f.sourcePath()));
             }
-            pretranspile.setSources(processedJavaFiles);
-            Problems result = transpile(pretranspile.build());
 
-            // blindly copy any JS in sources that aren't a native.js
-            ZipFile zipInputFile = new ZipFile(file);
-
-            processed.delete();
-            if (result.reportAndGetExitCode(System.err) == 0) {
-                try (FileSystem fs = FileSystems.newFileSystem(URI.create("jar:" + jszipOutFile.toURI()), Collections.singletonMap("create", "true"))) {
-                    for (ZipEntry entry : Collections.list(zipInputFile.entries())) {
-                        Path entryPath = Paths.get(entry.getName());
-                        if (jsMatcher.matches(entryPath) && !nativeJsMatcher.matches(entryPath)) {
-                            try (InputStream inputStream = zipInputFile.getInputStream(entry)) {
-                                Path path = fs.getPath(entry.getName()).toAbsolutePath();
-                                Files.createDirectories(path.getParent());
-                                // using StandardCopyOption.REPLACE_EXISTING seems overly pessimistic, but i can't get it to work without it
-                                Files.copy(inputStream, path, StandardCopyOption.REPLACE_EXISTING);
-                            }
-                        }
-                    }
+            // javac these first, so we have bytecode that matches the js, to use in place of the jar's own
+            if (classesJarFile.exists()) {
+                classesJar = classesJarFile.getPath();
+            } else if (compileDependency(options, file, classpath, processedJavaFiles, classesJarFile)) {
+                classesJar = classesJarFile.getPath();
+                if (remoteJsZipCache != null) {
+                    remoteJsZipCache.upload(remoteHash, ".classes.jar", classesJarFile.toPath());
                 }
+            } else {
+                // keyed on the jar's hash like the jszip, so a fixed jar is compiled again
+                Files.write(classesFailedFile.toPath(), new byte[0]);
+            }
 
-                additionalClosureArgs.add("--jszip");
-                additionalClosureArgs.add(jszipOut);
+            if (jszipOutFile.exists()) {
+                // only the bytecode was missing
+                metrics.count("dependenciesBuilt", 1);
+                return new BuiltDependency(file, jszipOut, classesJar);
+            }
 
-                persistentInputStore.addInput(jszipOut, "0");
-            } else {
-                jszipOutFile.delete();
+            J2clTranspilerOptions.Builder pretranspile = baseJ2clArgs.build().toBuilder();
+            // in theory, we only compile with the dependencies for this particular dep
+//            pretranspile.setClasspaths(Arrays.asList(options.getBytecodeClasspath().split(":")));
+            pretranspile.setOutput(transpiled.toPath());
+            pretranspile.setNativeSources(allSources.stream()
+                                                  .filter(p -> p.sourcePath().endsWith(".native.js"))
+                                                  .collect(ImmutableList.toImmutableList()));
+            pretranspile.setSources(processedJavaFiles);
+            Problems result = transpile(pretranspile.build());
+
+            if (result.reportAndGetExitCode(System.err) != 0) {
                 // ignoring failure for now, TODO don't!
                 // This is actually slightly tricky - we can't cache failure, since the user might stop and fix the classpath
                 // and then the next build will work, but on the other hand we don't want to fail building jsinterop-base
                 // over and over again either.
                 LOGGER.info("Failed compiling " + file + " to " + jszipOutFile.getName() + ", optionally copy a manual version to the cache to avoid this error");
+                metrics.count("dependenciesFailed", 1);
+                return new BuiltDependency(file, null, classesJar);
             }
+
+            try (JsZipWriter jszip = new JsZipWriter(jszipOutFile.toPath(), options.isStoredJsZips());
+                 ZipFile zipInputFile = new ZipFile(file)) {
+                // blindly copy any JS in sources that aren't a native.js, these replace any transpiled file at the same path
+                for (ZipEntry entry : Collections.list(zipInputFile.entries())) {
+                    Path entryPath = Paths.get(entry.getName());
+                    if (!entry.isDirectory() && jsMatcher.matches(entryPath) && !nativeJsMatcher.matches(entryPath)) {
+                        try (InputStream inputStream = zipInputFile.getInputStream(entry)) {
+                            jszip.add(entry.getName(), inputStream);
+                        }
+                    }
+                }
+                jszip.addDirectory(transpiled.toPath());
+                jszip.commit();
+            }
+        } finally {
+            GwtIncompatiblePreprocessor.deleteRecursively(processed.toPath());
+            GwtIncompatiblePreprocessor.deleteRecursively(transpiled.toPath());
+        }
+
+        LOGGER.info(file + " built in " + (System.currentTimeMillis() - started) + "millis");
+        metrics.count("dependenciesBuilt", 1);
+        if (remoteJsZipCache != null) {
+            remoteJsZipCache.upload(remoteHash, ".js.zip", jszipOutFile.toPath());
+        }
+        return new BuiltDependency(file, jszipOut, classesJar);
+    }
+
+    /**
+     * Compiles the preprocessed sources of a dependency against the original classpath, and writes the
+     * classes to a jar, replacing it only once complete. Annotation processors aren't run again, their
+     * output is expected to already be in the sources.
+     *
+     * @return true if the jar was written, false if javac failed, in which case the jar's own bytecode is used
+     */
+    private static boolean compileDependency(Gwt3Options options, File file, List<File> classpath, List<FrontendUtils.FileInfo> processedJavaFiles, File classesJarFile) throws IOException {
+        File classesDir = createTempDir();
+        try {
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+                fileManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+                fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(classesDir));
+                Iterable<? extends JavaFileObject> sources = fileManager.getJavaFileObjectsFromStrings(processedJavaFiles.stream().map(FrontendUtils.FileInfo::sourcePath).collect(Collectors.toList()));
+                List<String> javacOptions = Arrays.asList("-implicit:none", "-proc:none", "-nowarn", "-bootclasspath", options.getBootstrapClasspath().toString());
+                if (!compiler.getTask(null, fileManager, null, javacOptions, null, sources).call()) {
+                    // recorded by the caller, so this jar isn't compiled again until it changes
+                    LOGGER.info("Failed compiling " + file + " to " + classesJarFile.getName() + ", using its own bytecode instead");
+                    return false;
+                }
+            }
+
+            Path tmp = Files.createTempFile(classesJarFile.getParentFile().toPath(), classesJarFile.getName(), ".tmp");
+            try {
+                try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(tmp))) {
+                    Path root = classesDir.toPath();
+                    try (Stream<Path> classFiles = Files.walk(root)) {
+                        for (Path classFile : (Iterable<Path>) classFiles.filter(Files::isRegularFile).sorted()::iterator) {
+                            jar.putNextEntry(new JarEntry(root.relativize(classFile).toString().replace(File.separatorChar, '/')));
+                            Files.copy(classFile, jar);
+                            jar.closeEntry();
+                        }
+                    }
+                }
+                Files.move(tmp, classesJarFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            return true;
+        } finally {
+            GwtIncompatiblePreprocessor.deleteRecursively(classesDir.toPath());
+        }
+    }
+
+    /**
+     * Creates the client for the given cache server. Besides the jar itself, what gets built from a jar depends
+     * on the transpiler, the jdk that runs javac and the bootclasspath, so they are part of the key, hashed with
+     * SHA-256. Like the local cache, the rest of the classpath isn't, so a jar is built once for any classpath
+     * it appears on, and the local and remote caches always agree on what is a hit. Returns null if the
+     * transpiler or bootclasspath isn't a file, as their versions can't be told then.
+     */
+    private RemoteJsZipCache remoteJsZipCache(String url) throws IOException {
+        File transpilerJar;
+        try {
+            transpilerJar = new File(J2clTranspiler.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException | RuntimeException e) {
+            transpilerJar = null;
+        }
+        if (transpilerJar == null || !transpilerJar.isFile()) {
+            LOGGER.warning("Can't tell which transpiler version is running, not using the remote jszip cache " + url);
+            return null;
+        }
+        secureFingerprints = sharedCaches.getFingerprints(Paths.get(options.getJsZipCacheDir(), "fingerprints-sha256.txt"), true);
+        StringBuilder build = new StringBuilder("remote-2\n");
+        build.append("transpiler ").append(secureFingerprints.hash(transpilerJar)).append('\n');
+        build.append("java ").append(System.getProperty("java.vendor")).append(' ').append(System.getProperty("java.version")).append('\n');
+        File bootclasspath = options.getBootstrapClasspath();
+        if (bootclasspath == null || !bootclasspath.isFile()) {
+            LOGGER.warning("Can't tell which bootclasspath is used, not using the remote jszip cache " + url);
+            return null;
         }
-        return additionalClosureArgs;
+        build.append("bootclasspath ").append(secureFingerprints.hash(bootclasspath)).append('\n');
+        return new RemoteJsZipCache(url, DigestUtils.sha256Hex(build.toString()));
     }
 
-    private static String hash(File file) {
-        try (FileInputStream stream = new FileInputStream(file)) {
-            return DigestUtils.md5Hex(stream);
+    private String hash(File file) {
+        try {
+            return fingerprints.hash(file);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    private static boolean matchesChangedJavaFile(Path path, List<String> modifiedJavaFiles) {
-        String pathString = path.toString();
-        String nativeFilePath = pathString.substring(0, pathString.lastIndexOf(NativeJavaScriptFile.NATIVE_EXTENSION));
-        return modifiedJavaFiles.stream().anyMatch(javaPath -> javaPath.startsWith(nativeFilePath));
+    /**
+     * Returns the native js file for each of the given java files that has one, from whichever source
+     * directory has it at the same relative path, with the relative path as its original path.
+     */
+    private List<FrontendUtils.FileInfo> nativeSources(List<FrontendUtils.FileInfo> javaFiles) {
+        List<FrontendUtils.FileInfo> nativeSources = new ArrayList<>();
+        for (FrontendUtils.FileInfo javaFile : javaFiles) {
+            String originalPath = javaFile.originalPath();
+            String nativePath = originalPath.substring(0, originalPath.length() - ".java".length()) + NativeJavaScriptFile.NATIVE_EXTENSION;
+            for (String dir : options.getSourceDir()) {
+                Path nativeFile = Paths.get(dir, nativePath);
+                if (Files.isRegularFile(nativeFile)) {
+                    nativeSources.add(FrontendUtils.FileInfo.create(nativeFile.toString(), nativePath));
+                    break;
+                }
+            }
+        }
+        return nativeSources;
+    }
+
+    /**
+     * Transpiles the java files, split by package into shards that run concurrently if there are enough files
+     * to be worth it. Each shard reads the types in the other shards from the bytecode javac just wrote, so
+     * they don't depend on each other, and each writes its own files to the intermediate js directory.
+     *
+     * @return true if every shard succeeded, after reporting the problems of all of them
+     */
+    private boolean transpileSharded(List<FrontendUtils.FileInfo> javaFiles, List<FrontendUtils.FileInfo> nativeSources, BuildMetrics metrics) throws InterruptedException {
+        List<List<FrontendUtils.FileInfo>> shards = shardByPackage(javaFiles, Math.min(options.getTranspileShards(), javaFiles.size() / MIN_FILES_PER_SHARD));
+        metrics.count("transpileShards", Math.max(1, shards.size()));
+        if (shards.size() <= 1) {
+            return transpile(j2clArgs(javaFiles, nativeSources)).reportAndGetExitCode(System.err) == 0;
+        }
+
+        // each native js file goes to the shard with its java file, any others go to the first shard
+        List<List<FrontendUtils.FileInfo>> shardNativeSources = new ArrayList<>();
+        Map<String, Integer> shardByJavaFile = new HashMap<>();
+        for (int i = 0; i < shards.size(); i++) {
+            shardNativeSources.add(new ArrayList<>());
+            for (FrontendUtils.FileInfo javaFile : shards.get(i)) {
+                String originalPath = javaFile.originalPath();
+                shardByJavaFile.put(originalPath.substring(0, originalPath.length() - ".java".length()), i);
+            }
+        }
+        for (FrontendUtils.FileInfo nativeSource : nativeSources) {
+            String originalPath = nativeSource.originalPath();
+            String javaFile = originalPath.substring(0, originalPath.length() - NativeJavaScriptFile.NATIVE_EXTENSION.length());
+            shardNativeSources.get(shardByJavaFile.getOrDefault(javaFile, 0)).add(nativeSource);
+        }
+
+        LOGGER.info("Transpiling " + javaFiles.size() + " java files in " + shards.size() + " shards");
+        ExecutorService executor = Executors.newFixedThreadPool(shards.size());
+        try {
+            List<Future<Problems>> results = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                J2clTranspilerOptions shardArgs = j2clArgs(shards.get(i), shardNativeSources.get(i));
+                String shardName = "shard" + i;
+                results.add(executor.submit(() -> {
+                    try (BuildMetrics.Phase phase = metrics.subPhase("j2clShards", shardName)) {
+                        return transpile(shardArgs);
+                    }
+                }));
+            }
+            boolean success = true;
+            for (Future<Problems> result : results) {
+                try {
+                    success &= result.get().reportAndGetExitCode(System.err) == 0;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Transpiling a shard failed", e.getCause());
+                }
+            }
+            return success;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private J2clTranspilerOptions j2clArgs(List<FrontendUtils.FileInfo> javaFiles, List<FrontendUtils.FileInfo> nativeSources) {
+        J2clTranspilerOptions.Builder j2clArgs = baseJ2clArgs.build().toBuilder();
+        if (!nativeSources.isEmpty()) {
+            j2clArgs.setNativeSources(nativeSources);
+        }
+        j2clArgs.setSources(javaFiles);
+        return j2clArgs.build();
+    }
+
+    /**
+     * Splits the java files into at most the given number of shards, keeping each package together, and
+     * giving the largest packages out first to whichever shard has the fewest files so far.
+     */
+    private static List<List<FrontendUtils.FileInfo>> shardByPackage(List<FrontendUtils.FileInfo> javaFiles, int shardCount) {
+        if (shardCount <= 1) {
+            return Collections.singletonList(javaFiles);
+        }
+        Map<String, List<FrontendUtils.FileInfo>> packages = new LinkedHashMap<>();
+        for (FrontendUtils.FileInfo javaFile : javaFiles) {
+            Path packagePath = Paths.get(javaFile.originalPath()).getParent();
+            packages.computeIfAbsent(packagePath == null ? "" : packagePath.toString(), ignore -> new ArrayList<>()).add(javaFile);
+        }
+        List<List<FrontendUtils.FileInfo>> sorted = new ArrayList<>(packages.values());
+        sorted.sort((a, b) -> Integer.compare(b.size(), a.size()));
+
+        List<List<FrontendUtils.FileInfo>> shards = new ArrayList<>();
+        for (int i = 0; i < Math.min(shardCount, sorted.size()); i++) {
+            shards.add(new ArrayList<>());
+        }
+        for (List<FrontendUtils.FileInfo> packageFiles : sorted) {
+            List<FrontendUtils.FileInfo> smallest = shards.get(0);
+            for (List<FrontendUtils.FileInfo> shard : shards) {
+                if (shard.size() < smallest.size()) {
+                    smallest = shard;
+                }
+            }
+            smallest.addAll(packageFiles);
+        }
+        return shards;
     }
 
     /**
@@ -395,11 +1232,7 @@ public class SingleCompiler {
         return J2clTranspiler.transpile(j2clArgs);
     }
 
-    private static boolean shouldZip(Path path, List<FrontendUtils.FileInfo> modifiedJavaFiles) {
-        return nativeJsMatcher.matches(path);// && matchesChangedJavaFile(path, modifiedJavaFiles);
-    }
-
-    private static boolean jscomp(List<String> baseClosureArgs, PersistentInputStore persistentInputStore, String updatedJsDirectories) throws IOException {
+    private boolean jscomp(List<String> baseClosureArgs, PersistentInputStore persistentInputStore, String updatedJsDirectories, BuildMetrics metrics) throws IOException, InterruptedException {
         // collect all js into one artifact (currently jscomp, but it would be wonderful to not pay quite so much for this...)
         List<String> jscompArgs = new ArrayList<>(baseClosureArgs);
 
@@ -413,24 +1246,69 @@ public class SingleCompiler {
             return false;
         }
 
-        // for each file in the updated dir
-        long timestamp = System.currentTimeMillis();
-        Files.find(Paths.get(updatedJsDirectories), Integer.MAX_VALUE, (path, attrs) -> jsMatcher.matches(path)).forEach((Path path) -> {
-            // add updated JS file to the input store with timestamp instead of digest for now
-            persistentInputStore.addInput(path.toString(), timestamp + "");
-        });
-        //TODO how do we handle deleted files? If they are truly deleted, nothing should reference them, and the module resolution should shake them out, at only the cost of a little memory?
+        if (inputSnapshots != null) {
+            // the store can't be used until the saved inputs are all in it
+            metrics.count("inputSnapshotsLoaded", inputSnapshots.awaitLoaded());
+        }
+
+        // the store may be shared with compilers for other projects, which have to wait their turn
+        synchronized (persistentInputStore) {
+            // for each file in the updated dir, re-register only the ones whose content changed, so the store keeps
+            // the parsed ASTs for everything else
+            int[] changed = new int[2];
+            Files.walkFileTree(Paths.get(updatedJsDirectories), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                    if (!jsMatcher.matches(path)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (jsDigests.update(path, attrs)) {
+                        persistentInputStore.addInput(path.toString(), jsDigests.getDigest(path));
+                        changed[0]++;
+                    } else {
+                        changed[1]++;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            LOGGER.info(changed[0] + " changed js inputs");
+            // unchanged inputs keep their cached ASTs in the store, changed ones will be reparsed
+            metrics.count("inputStoreMisses", changed[0]);
+            metrics.count("inputStoreHits", changed[1]);
+            // deleted files have already been removed from the directory and evicted from the store, see removeOutputs
 
-        jscompRunner.run();
+            // the store now matches the files on disk, so this is the last point we can stop, jscomp can't be cancelled
+            checkCancelled();
+            jscompRunner.run();
 
-        if (jscompRunner.hasErrors()) {
-            return false;
+            if (jscompRunner.hasErrors()) {
+                return false;
+            }
+            if (jsCompiler.getModules() != null) {
+                // clear out the compiler input for the next goaround
+                jsCompiler.resetCompilerInput();
+            }
+            if (inputSnapshots != null) {
+                // every jszip input has been parsed now and is no longer tied to this compile, save any that
+                // will be needed again after a restart
+                metrics.count("inputSnapshotsSaved", inputSnapshots.saveUnsaved());
+                // snapshots are loaded and saved after setup, record that they're still in use
+                jsZipCache.saveAccesses();
+            }
+            return true;
         }
-        if (jsCompiler.getModules() != null) {
-            // clear out the compiler input for the next goaround
-            jsCompiler.resetCompilerInput();
+    }
+
+    private static class BuiltDependency {
+        private final File file;
+        private final String jszip;
+        private final String classesJar;
+
+        private BuiltDependency(File file, String jszip, String classesJar) {
+            this.file = file;
+            this.jszip = jszip;
+            this.classesJar = classesJar;
         }
-        return true;
     }
 
     static class InProcessJsCompRunner extends CommandLineRunner {
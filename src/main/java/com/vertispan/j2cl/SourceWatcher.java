@@ -0,0 +1,314 @@
+package com.vertispan.j2cl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Watches the source directories for changes, and keeps an in-memory index of every file found in them, so
+ * that callers can block until something changes rather than walking the whole tree on an interval.
+ * <p>
+ * Every directory is registered with a {@link WatchService}, as the jdk doesn't offer recursive watches on all
+ * platforms. New directories are registered as they show up, and any files already in them are reported as
+ * created, since they might have been written before we got to register. If the OS drops events (OVERFLOW),
+ * we fall back to a full rescan of the roots and diff that against the index.
+ * <p>
+ * Not thread safe, expected to be driven from the single listening loop.
+ */
+public class SourceWatcher implements Closeable {
+
+    private final static Logger LOGGER = Logger.getLogger(SourceWatcher.class.getName());
+
+    private final List<Path> roots = new ArrayList<>();
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+    // sorted so that everything under a given directory is close together, for when a whole dir is deleted
+    private final TreeMap<Path, FileTime> index = new TreeMap<>();
+
+    public SourceWatcher(List<String> sourceDirs) throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        for (String dir : sourceDirs) {
+            Path root = Paths.get(dir).toAbsolutePath().normalize();
+            roots.add(root);
+            registerAll(root, null);
+        }
+        LOGGER.info("Watching " + watchedDirs.size() + " directories, " + index.size() + " files");
+    }
+
+    /**
+     * Returns every file currently known to be in the source directories.
+     */
+    public Set<Path> getFiles() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    /**
+     * Blocks until at least one change has been seen, then collects any other events that are already
+     * waiting, and returns them all together.
+     */
+    public Changes take() throws InterruptedException, IOException {
+        Changes changes = new Changes();
+        while (changes.isEmpty()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (ClosedWatchServiceException e) {
+                throw new InterruptedException("watch service closed");
+            }
+            handle(key, changes);
+            drain(changes);
+        }
+        return changes;
+    }
+
+    /**
+     * Blocks until at least one change has been seen, then keeps collecting changes until none have arrived for
+     * the quiet period, or the max wait has passed since the first one, so that a burst of changes (saving all
+     * files, switching branches) is returned together. The result may be empty, if the burst undid itself.
+     */
+    public Changes take(long quietPeriodMillis, long maxWaitMillis) throws InterruptedException, IOException {
+        return take(quietPeriodMillis, maxWaitMillis, null);
+    }
+
+    /**
+     * Like {@link #take(long, long)}, but runs the given callback (if any) as soon as the first change is seen,
+     * before waiting for the rest of the burst.
+     */
+    public Changes take(long quietPeriodMillis, long maxWaitMillis, Runnable onFirstChange) throws InterruptedException, IOException {
+        Changes changes = take();
+        if (onFirstChange != null) {
+            onFirstChange.run();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        while (quietPeriodMillis > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            WatchKey key;
+            try {
+                key = watchService.poll(Math.min(TimeUnit.MILLISECONDS.toNanos(quietPeriodMillis), remaining), TimeUnit.NANOSECONDS);
+            } catch (ClosedWatchServiceException e) {
+                throw new InterruptedException("watch service closed");
+            }
+            if (key == null) {
+                // quiet long enough
+                break;
+            }
+            handle(key, changes);
+            drain(changes);
+        }
+        return changes;
+    }
+
+    private void drain(Changes changes) throws IOException {
+        WatchKey key;
+        while ((key = watchService.poll()) != null) {
+            handle(key, changes);
+        }
+    }
+
+    private void handle(WatchKey key, Changes changes) throws IOException {
+        Path dir = watchedDirs.get(key);
+        if (dir == null) {
+            // cancelled already, ignore
+            key.reset();
+            return;
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            changes.events += event.count();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                LOGGER.info("Too many changes for the watcher to keep up, rescanning all source directories");
+                rescan(changes);
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                removeAll(path, changes);
+            } else if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    registerAll(path, changes);
+                }
+            } else {
+                update(path, changes);
+            }
+        }
+        if (!key.reset()) {
+            // directory is no longer accessible, delete events for its contents will have been sent
+            watchedDirs.remove(key);
+        }
+    }
+
+    /**
+     * Records the current state of the given file in the index, noting it as created or modified if that
+     * differs from what we had.
+     */
+    private void update(Path file, Changes changes) throws IOException {
+        FileTime lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(file);
+        } catch (NoSuchFileException e) {
+            // already gone again, the delete event will follow
+            return;
+        }
+        FileTime previous = index.put(file, lastModified);
+        if (changes == null) {
+            return;
+        }
+        if (previous == null) {
+            if (changes.deleted.remove(file)) {
+                // deleted and recreated within the same batch
+                changes.modified.add(file);
+            } else {
+                changes.created.add(file);
+            }
+        } else if (!previous.equals(lastModified) && !changes.created.contains(file)) {
+            changes.modified.add(file);
+        }
+    }
+
+    /**
+     * Removes the path from the index, along with anything under it in case it was a directory.
+     */
+    private void removeAll(Path path, Changes changes) {
+        String prefix = path.toString();
+        Iterator<Path> it = index.tailMap(path, true).keySet().iterator();
+        while (it.hasNext()) {
+            Path file = it.next();
+            if (!file.toString().startsWith(prefix)) {
+                break;
+            }
+            if (!file.startsWith(path)) {
+                // sibling like "foo-bar" sorting between "foo" and "foo/..."
+                continue;
+            }
+            it.remove();
+            if (!changes.created.remove(file)) {
+                changes.deleted.add(file);
+            }
+            changes.modified.remove(file);
+        }
+        watchedDirs.entrySet().removeIf(entry -> {
+            if (entry.getValue().startsWith(path)) {
+                entry.getKey().cancel();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private void registerAll(Path start, Changes changes) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirs.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                update(file, changes);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if (exc instanceof NoSuchFileException) {
+                    // deleted while we were walking
+                    return FileVisitResult.CONTINUE;
+                }
+                throw exc;
+            }
+        });
+    }
+
+    /**
+     * Walks every root again, registering any directory we missed, and diffing the files against the index.
+     */
+    private void rescan(Changes changes) throws IOException {
+        Set<Path> missing = new LinkedHashSet<>(index.keySet());
+        for (WatchKey key : watchedDirs.keySet()) {
+            key.cancel();
+        }
+        watchedDirs.clear();
+        for (Path root : roots) {
+            registerAll(root, changes);
+        }
+        missing.removeIf(Files::exists);
+        for (Path file : missing) {
+            removeAll(file, changes);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * Set of files that were created, modified or deleted since the last time changes were requested. Each
+     * file shows up in at most one of the three sets.
+     */
+    public static class Changes {
+        private final Set<Path> created = new LinkedHashSet<>();
+        private final Set<Path> modified = new LinkedHashSet<>();
+        private final Set<Path> deleted = new LinkedHashSet<>();
+        private int events;
+
+        public Set<Path> getCreated() {
+            return created;
+        }
+
+        public Set<Path> getModified() {
+            return modified;
+        }
+
+        public Set<Path> getDeleted() {
+            return deleted;
+        }
+
+        /**
+         * Returns the number of events from the watch service that were merged into these changes.
+         */
+        public int getEventCount() {
+            return events;
+        }
+
+        public boolean isEmpty() {
+            return created.isEmpty() && modified.isEmpty() && deleted.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return created.size() + " created, " + modified.size() + " modified, " + deleted.size() + " deleted, from " + events + " events";
+        }
+    }
+}
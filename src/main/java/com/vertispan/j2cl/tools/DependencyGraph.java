@@ -0,0 +1,360 @@
+package com.vertispan.j2cl.tools;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Type-level dependency graph between java sources, built from the constant pools of the class files that
+ * javac wrote for each of them. This lets us find which other sources need to be recompiled when a source
+ * changes (callers of a changed method, subclasses, etc), without having to rebuild everything.
+ * <p>
+ * Constant pools don't include references to compile-time constants, since javac inlines those. Instead, the
+ * value of each non-private constant is tracked per source, so the caller can tell when a change needs a
+ * wider rebuild.
+ * <p>
+ * The api of each source (its classes' supertypes, and the signatures of their non-private members) is also
+ * kept, so that after recompiling, the caller can tell whether a change can affect anything beyond the direct
+ * referrers. Only then do referrers of subtypes need to be rebuilt too, as they may use an inherited member
+ * without naming the changed class.
+ * <p>
+ * Source keys are expected to be normalized absolute paths.
+ */
+public class DependencyGraph {
+    // matches class names in field, method and generic signatures, like "Ljava/util/List<Lcom/foo/Bar;>;"
+    private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([^;<>()\\[]+)[;<]");
+
+    private final Map<String, Set<String>> classesBySource = new HashMap<>();
+    private final Map<String, Set<String>> referencesBySource = new HashMap<>();
+    private final Map<String, Set<String>> dependentsByClass = new HashMap<>();
+    private final Map<String, String> constantsBySource = new HashMap<>();
+    private final Map<String, Set<String>> supertypesBySource = new HashMap<>();
+    private final Map<String, Set<String>> subtypesByClass = new HashMap<>();
+    private final Map<String, String> apiBySource = new HashMap<>();
+    // sources whose last update changed their api
+    private final Set<String> apiChanged = new HashSet<>();
+
+    /**
+     * Returns every source that is currently part of the graph.
+     */
+    public Set<String> getSources() {
+        return Collections.unmodifiableSet(classesBySource.keySet());
+    }
+
+    /**
+     * Returns the sources which directly reference any class produced by the given sources, not including the
+     * given sources themselves.
+     */
+    public Set<String> getDependents(Collection<String> sources) {
+        Set<String> dependents = new TreeSet<>();
+        for (String source : sources) {
+            for (String className : classesBySource.getOrDefault(source, Collections.emptySet())) {
+                dependents.addAll(dependentsByClass.getOrDefault(className, Collections.emptySet()));
+            }
+        }
+        dependents.removeAll(sources);
+        return dependents;
+    }
+
+    /**
+     * Returns the sources that can be affected by a change to the api of the given sources: their direct
+     * referrers, and following supertype edges, the referrers of every subtype, as those may use an inherited
+     * member through the subtype. Doesn't include the given sources themselves.
+     */
+    public Set<String> getApiDependents(Collection<String> sources) {
+        Set<String> dependents = new TreeSet<>();
+        Set<String> visited = new HashSet<>(sources);
+        Deque<String> pending = new ArrayDeque<>(visited);
+        while (!pending.isEmpty()) {
+            String source = pending.poll();
+            for (String className : classesBySource.getOrDefault(source, Collections.emptySet())) {
+                dependents.addAll(dependentsByClass.getOrDefault(className, Collections.emptySet()));
+                for (String subtype : subtypesByClass.getOrDefault(className, Collections.emptySet())) {
+                    if (visited.add(subtype)) {
+                        pending.add(subtype);
+                    }
+                }
+            }
+        }
+        dependents.removeAll(sources);
+        return dependents;
+    }
+
+    /**
+     * Returns true if the last update of the given source changed its api, or it was new then.
+     */
+    public boolean isApiChanged(String source) {
+        return apiChanged.contains(source);
+    }
+
+    /**
+     * Replaces everything known about the given source with the contents of the class files it just
+     * produced.
+     *
+     * @return true if the source was already known, and the values of the constants it declares changed
+     */
+    public boolean update(String source, Map<String, InputStream> classFiles) throws IOException {
+        Set<String> references = new HashSet<>();
+        Set<String> constants = new TreeSet<>();
+        Set<String> supertypes = new HashSet<>();
+        Set<String> api = new TreeSet<>();
+        for (InputStream classFile : classFiles.values()) {
+            try (DataInputStream in = new DataInputStream(classFile)) {
+                readClassFile(in, references, constants, supertypes, api);
+            }
+        }
+        references.removeAll(classFiles.keySet());
+        supertypes.removeAll(classFiles.keySet());
+
+        String previousConstants = constantsBySource.get(source);
+        String previousApi = apiBySource.get(source);
+        remove(source);
+
+        String apiString = String.join("\n", api);
+        apiBySource.put(source, apiString);
+        if (!apiString.equals(previousApi)) {
+            apiChanged.add(source);
+        }
+        supertypesBySource.put(source, supertypes);
+        for (String supertype : supertypes) {
+            subtypesByClass.computeIfAbsent(supertype, ignore -> new HashSet<>()).add(source);
+        }
+
+        String constantsString = String.join(";", constants);
+        classesBySource.put(source, new HashSet<>(classFiles.keySet()));
+        referencesBySource.put(source, references);
+        for (String reference : references) {
+            dependentsByClass.computeIfAbsent(reference, ignore -> new HashSet<>()).add(source);
+        }
+        constantsBySource.put(source, constantsString);
+
+        return previousConstants != null && !previousConstants.equals(constantsString);
+    }
+
+    /**
+     * Removes the source and the classes it produced from the graph. Sources that referenced those classes
+     * still list them, so they'll be found as dependents if the classes come back.
+     */
+    public void remove(String source) {
+        classesBySource.remove(source);
+        Set<String> references = referencesBySource.remove(source);
+        if (references != null) {
+            for (String reference : references) {
+                Set<String> dependents = dependentsByClass.get(reference);
+                if (dependents != null) {
+                    dependents.remove(source);
+                    if (dependents.isEmpty()) {
+                        dependentsByClass.remove(reference);
+                    }
+                }
+            }
+        }
+        constantsBySource.remove(source);
+        apiBySource.remove(source);
+        apiChanged.remove(source);
+        Set<String> supertypes = supertypesBySource.remove(source);
+        if (supertypes != null) {
+            for (String supertype : supertypes) {
+                Set<String> subtypes = subtypesByClass.get(supertype);
+                if (subtypes != null) {
+                    subtypes.remove(source);
+                    if (subtypes.isEmpty()) {
+                        subtypesByClass.remove(supertype);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the class names referenced from the constant pool of the class file, the names and values of any
+     * non-private constant fields, the direct supertypes, and a line for each part of the class's api.
+     */
+    private static void readClassFile(DataInputStream in, Set<String> references, Set<String> constants, Set<String> supertypes, Set<String> api) throws IOException {
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort();// minor
+        in.readUnsignedShort();// major
+
+        int poolSize = in.readUnsignedShort();
+        Object[] pool = new Object[poolSize];
+        // index of the name of each Class entry, or zero for other entries
+        int[] classNameIndexes = new int[poolSize];
+        for (int i = 1; i < poolSize; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:// Utf8
+                    pool[i] = in.readUTF();
+                    break;
+                case 3:// Integer
+                    pool[i] = in.readInt();
+                    break;
+                case 4:// Float
+                    pool[i] = in.readFloat();
+                    break;
+                case 5:// Long
+                    pool[i++] = in.readLong();
+                    break;
+                case 6:// Double
+                    pool[i++] = in.readDouble();
+                    break;
+                case 7:// Class
+                    classNameIndexes[i] = in.readUnsignedShort();
+                    break;
+                case 8:// String
+                    pool[i] = new StringRef(in.readUnsignedShort());
+                    break;
+                case 16:// MethodType
+                case 19:// Module
+                case 20:// Package
+                    in.readUnsignedShort();
+                    break;
+                case 15:// MethodHandle
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                case 9:// Fieldref
+                case 10:// Methodref
+                case 11:// InterfaceMethodref
+                case 12:// NameAndType
+                case 17:// Dynamic
+                case 18:// InvokeDynamic
+                    in.readInt();
+                    break;
+                default:
+                    throw new IOException("Unexpected constant pool tag " + tag);
+            }
+        }
+
+        for (int nameIndex : classNameIndexes) {
+            if (nameIndex == 0) {
+                continue;
+            }
+            String name = (String) pool[nameIndex];
+            if (name.startsWith("[")) {
+                // array, handled by the descriptor check below
+                continue;
+            }
+            references.add(name.replace('/', '.'));
+        }
+        for (Object entry : pool) {
+            if (entry instanceof String && ((String) entry).indexOf(';') != -1) {
+                Matcher matcher = DESCRIPTOR_CLASS.matcher((String) entry);
+                while (matcher.find()) {
+                    references.add(matcher.group(1).replace('/', '.'));
+                }
+            }
+        }
+
+        // ACC_SUPER only tells the jvm how to run invokespecial
+        int classAccess = in.readUnsignedShort() & ~0x0020;
+        String thisClass = ((String) pool[classNameIndexes[in.readUnsignedShort()]]).replace('/', '.');
+        StringBuilder header = new StringBuilder("class ").append(thisClass).append(' ').append(classAccess);
+        int superIndex = in.readUnsignedShort();
+        if (superIndex != 0) {
+            String superclass = ((String) pool[classNameIndexes[superIndex]]).replace('/', '.');
+            supertypes.add(superclass);
+            header.append(" extends ").append(superclass);
+        }
+        int interfaces = in.readUnsignedShort();
+        for (int i = 0; i < interfaces; i++) {
+            String supertype = ((String) pool[classNameIndexes[in.readUnsignedShort()]]).replace('/', '.');
+            supertypes.add(supertype);
+            header.append(" implements ").append(supertype);
+        }
+
+        int fields = in.readUnsignedShort();
+        for (int i = 0; i < fields; i++) {
+            int access = in.readUnsignedShort();
+            String name = (String) pool[in.readUnsignedShort()];
+            String descriptor = (String) pool[in.readUnsignedShort()];
+            StringBuilder member = new StringBuilder("field ").append(thisClass).append('.').append(name).append(' ').append(descriptor).append(' ').append(access);
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                String attributeName = (String) pool[in.readUnsignedShort()];
+                int length = in.readInt();
+                if ("ConstantValue".equals(attributeName) && (access & 0x0002) == 0) {
+                    Object value = pool[in.readUnsignedShort()];
+                    if (value instanceof StringRef) {
+                        value = pool[((StringRef) value).index];
+                    }
+                    constants.add(thisClass + "." + name + "=" + value);
+                    member.append(" = ").append(value);
+                } else if ("Signature".equals(attributeName)) {
+                    member.append(' ').append(pool[in.readUnsignedShort()]);
+                } else {
+                    in.readFully(new byte[length]);
+                }
+            }
+            if (isApi(access)) {
+                api.add(member.toString());
+            }
+        }
+
+        int methods = in.readUnsignedShort();
+        for (int i = 0; i < methods; i++) {
+            int access = in.readUnsignedShort();
+            String name = (String) pool[in.readUnsignedShort()];
+            String descriptor = (String) pool[in.readUnsignedShort()];
+            StringBuilder member = new StringBuilder("method ").append(thisClass).append('.').append(name).append(descriptor).append(' ').append(access);
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                String attributeName = (String) pool[in.readUnsignedShort()];
+                int length = in.readInt();
+                if ("Signature".equals(attributeName)) {
+                    member.append(' ').append(pool[in.readUnsignedShort()]);
+                } else if ("Exceptions".equals(attributeName)) {
+                    int exceptions = in.readUnsignedShort();
+                    for (int k = 0; k < exceptions; k++) {
+                        member.append(" throws ").append(pool[classNameIndexes[in.readUnsignedShort()]]);
+                    }
+                } else {
+                    in.readFully(new byte[length]);
+                }
+            }
+            if (isApi(access)) {
+                api.add(member.toString());
+            }
+        }
+
+        int attributes = in.readUnsignedShort();
+        for (int i = 0; i < attributes; i++) {
+            String attributeName = (String) pool[in.readUnsignedShort()];
+            int length = in.readInt();
+            if ("Signature".equals(attributeName)) {
+                header.append(' ').append(pool[in.readUnsignedShort()]);
+            } else {
+                in.readFully(new byte[length]);
+            }
+        }
+        api.add(header.toString());
+    }
+
+    /**
+     * Private members can't be used from other sources, and synthetic ones (like access$000 or lambda bodies)
+     * come and go with edits to method bodies.
+     */
+    private static boolean isApi(int access) {
+        return (access & (0x0002 | 0x1000)) == 0;
+    }
+
+    private static class StringRef {
+        private final int index;
+
+        private StringRef(int index) {
+            this.index = index;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.vertispan.j2cl.tools;
 
 import com.google.j2cl.common.Problems;
-import com.google.j2cl.frontend.FrontendUtils;
 import com.google.j2cl.frontend.FrontendUtils.FileInfo;
 import com.google.j2cl.tools.gwtincompatible.JavaPreprocessor;
 
@@ -10,17 +9,34 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Takes a directory of sources, and removes any types or members that are
  * annotated with @GwtIncompatible
+ *
+ * Output is written straight to the output directory, each file at its originalPath (absolute paths
+ * are kept in full under the output directory). The returned files can be passed directly to j2cl,
+ * without going through a srcjar first.
  */
 public class GwtIncompatiblePreprocessor {
     private final File outputDirectory;
+    private final PreprocessorCache cache;
 
     public GwtIncompatiblePreprocessor(File outputDirectory) {
+        this(outputDirectory, null);
+    }
+
+    /**
+     * Creates a preprocessor that first checks the cache for each file, and only runs the preprocessor on
+     * files that aren't there.
+     */
+    public GwtIncompatiblePreprocessor(File outputDirectory, PreprocessorCache cache) {
         this.outputDirectory = outputDirectory;
+        this.cache = cache;
         if (!outputDirectory.exists() || !outputDirectory.isDirectory()) {
             throw new IllegalArgumentException(outputDirectory.toString());
         }
@@ -29,36 +45,98 @@ public class GwtIncompatiblePreprocessor {
     public List<FileInfo> preprocess(List<FileInfo> unprocessedFiles) throws IOException {
         Problems problems = new Problems();
 
-        List<FileInfo> result = new ArrayList<>();
-        File processed = File.createTempFile("preprocessed", ".srcjar");
-        try (FileSystem out = FrontendUtils.initZipOutput(processed.getAbsolutePath(), new Problems())) {
+        List<FileInfo> result = preprocess(unprocessedFiles, problems);
 
-            JavaPreprocessor.preprocessFiles(unprocessedFiles, out.getPath("/"), problems);
+        if (problems.hasErrors()) {
+            throw new IllegalStateException(problems.getErrors().toString());
+        }
+        return result;
+    }
 
-            if (problems.hasErrors()) {
-                throw new IllegalStateException(problems.getErrors().toString());
+    /**
+     * Preprocesses the given files, reporting any errors to the problems instance rather than throwing.
+     */
+    public List<FileInfo> preprocess(List<FileInfo> unprocessedFiles, Problems problems) throws IOException {
+        Path output = outputDirectory.toPath();
+        List<FileInfo> relativeFiles = new ArrayList<>();
+        List<FileInfo> toProcess = new ArrayList<>();
+        Map<String, String> cacheKeys = new HashMap<>();
+        for (FileInfo file : unprocessedFiles) {
+            Path originalPath = Paths.get(file.originalPath());
+            if (originalPath.isAbsolute()) {
+                // never resolve to the original file itself, keep the whole path under the output dir instead
+                originalPath = originalPath.getRoot().relativize(originalPath);
             }
+            FileInfo relativeFile = FileInfo.create(file.sourcePath(), originalPath.toString());
+            relativeFiles.add(relativeFile);
+            Path targetPath = output.resolve(originalPath);
 
-            // TODO when the preprocessor doesn't require writing to a zip, we can
-            //      change this to just write to the output dir directly
-            Path path = out.getPath("/");
-            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    Path relativePathInZip = path.relativize(file);
-                    Path targetPath = Paths.get(outputDirectory.toURI()).resolve(relativePathInZip.toString());
+            if (cache != null) {
+                String key = cache.key(Files.readAllBytes(Paths.get(file.sourcePath())));
+                byte[] processed = cache.get(key);
+                if (processed != null) {
+                    writeIfChanged(targetPath, processed);
+                    continue;
+                }
+                cacheKeys.put(relativeFile.originalPath(), key);
+            }
+
+            // the output dir may be reused, don't let an old copy stand in for a file the preprocessor skips
+            Files.deleteIfExists(targetPath);
+            toProcess.add(relativeFile);
+        }
 
-                    Files.createDirectories(targetPath.getParent());
-                    Files.copy(file, targetPath);
-                    result.add(FileInfo.create(targetPath.toString(), targetPath.toString()));
+        if (!toProcess.isEmpty()) {
+            JavaPreprocessor.preprocessFiles(toProcess, output, problems);
+        }
 
-                    return FileVisitResult.CONTINUE;
+        if (cache != null && !problems.hasErrors()) {
+            for (FileInfo file : toProcess) {
+                Path targetPath = output.resolve(file.originalPath());
+                if (Files.exists(targetPath)) {
+                    cache.put(cacheKeys.get(file.originalPath()), Files.readAllBytes(targetPath));
                 }
-            });
-            
-        } finally {
-            processed.delete();
+            }
+        }
+
+        List<FileInfo> result = new ArrayList<>();
+        for (FileInfo file : relativeFiles) {
+            Path targetPath = output.resolve(file.originalPath());
+            // the preprocessor may skip files that have nothing left
+            if (Files.exists(targetPath)) {
+                result.add(FileInfo.create(targetPath.toString(), file.originalPath()));
+            }
         }
         return result;
     }
+
+    private static void writeIfChanged(Path path, byte[] content) throws IOException {
+        if (Files.exists(path) && Files.size(path) == content.length && Arrays.equals(content, Files.readAllBytes(path))) {
+            return;
+        }
+        Files.createDirectories(path.getParent());
+        Files.write(path, content);
+    }
+
+    /**
+     * Deletes the given directory and everything in it, for cleaning up temporary output directories.
+     */
+    public static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
 }
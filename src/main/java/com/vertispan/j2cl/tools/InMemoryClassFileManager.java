@@ -0,0 +1,170 @@
+package com.vertispan.j2cl.tools;
+
+import javax.tools.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the class files that javac writes in memory, and serves them back to later compiles in place of the
+ * copies on the classpath, so javac doesn't read its own output from disk again.
+ * <p>
+ * If requested, each class is also written through to the class output directory, but only when its bytes
+ * actually changed, so that unchanged classes keep their timestamps. Anything that reads bytecode by path
+ * (like the j2cl frontend) needs this.
+ */
+public class InMemoryClassFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    private final File classesDir;
+    private final boolean writeThrough;
+    // classes by package, then binary name
+    private final Map<String, Map<String, MemoryClassFile>> classes = new HashMap<>();
+
+    public InMemoryClassFileManager(StandardJavaFileManager fileManager, File classesDir, boolean writeThrough) {
+        super(fileManager);
+        this.classesDir = classesDir;
+        this.writeThrough = writeThrough;
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+        if (location != StandardLocation.CLASS_OUTPUT || kind != JavaFileObject.Kind.CLASS) {
+            return super.getJavaFileForOutput(location, className, kind, sibling);
+        }
+        MemoryClassFile existing = getClassFile(className);
+        return new MemoryClassFile(className, existing == null ? null : existing.bytes);
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+        Iterable<JavaFileObject> list = super.list(location, packageName, kinds, recurse);
+        if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS)) {
+            return list;
+        }
+        List<MemoryClassFile> inMemory = new ArrayList<>();
+        for (Map.Entry<String, Map<String, MemoryClassFile>> entry : classes.entrySet()) {
+            String name = entry.getKey();
+            if (name.equals(packageName) || (recurse && (packageName.isEmpty() || name.startsWith(packageName + ".")))) {
+                inMemory.addAll(entry.getValue().values());
+            }
+        }
+        if (inMemory.isEmpty()) {
+            return list;
+        }
+
+        // our copies hide any older versions of the same class on disk
+        List<JavaFileObject> result = new ArrayList<>(inMemory);
+        for (JavaFileObject file : list) {
+            if (file.getKind() != JavaFileObject.Kind.CLASS || getClassFile(super.inferBinaryName(location, file)) == null) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+        if (file instanceof MemoryClassFile) {
+            return ((MemoryClassFile) file).className;
+        }
+        return super.inferBinaryName(location, file);
+    }
+
+    @Override
+    public boolean isSameFile(FileObject a, FileObject b) {
+        if (a instanceof MemoryClassFile || b instanceof MemoryClassFile) {
+            return a.equals(b);
+        }
+        return super.isSameFile(a, b);
+    }
+
+    private MemoryClassFile getClassFile(String className) {
+        return classes.getOrDefault(packageName(className), Collections.emptyMap()).get(className);
+    }
+
+    private static String packageName(String className) {
+        int lastDot = className.lastIndexOf('.');
+        return lastDot == -1 ? "" : className.substring(0, lastDot);
+    }
+
+    private Path classFilePath(String className) {
+        return classesDir.toPath().resolve(className.replace('.', File.separatorChar) + ".class");
+    }
+
+    private void store(MemoryClassFile classFile, byte[] previous) throws IOException {
+        classes.computeIfAbsent(packageName(classFile.className), ignore -> new HashMap<>()).put(classFile.className, classFile);
+        if (!writeThrough) {
+            return;
+        }
+        Path path = classFilePath(classFile.className);
+        if (previous == null && Files.exists(path)) {
+            // left from an earlier run, compare against that instead
+            previous = Files.readAllBytes(path);
+        }
+        if (!Arrays.equals(previous, classFile.bytes)) {
+            Files.createDirectories(path.getParent());
+            Files.write(path, classFile.bytes);
+        }
+    }
+
+    private boolean remove(MemoryClassFile classFile) {
+        Map<String, MemoryClassFile> pkg = classes.get(packageName(classFile.className));
+        boolean removed = pkg != null && pkg.remove(classFile.className) != null;
+        if (writeThrough) {
+            try {
+                removed |= Files.deleteIfExists(classFilePath(classFile.className));
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return removed;
+    }
+
+    private class MemoryClassFile extends SimpleJavaFileObject {
+        private final String className;
+        private byte[] bytes;
+
+        private MemoryClassFile(String className, byte[] previous) {
+            super(URI.create("mem:///" + className.replace('.', '/') + ".class"), Kind.CLASS);
+            this.className = className;
+            this.bytes = previous;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            byte[] previous = bytes;
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() throws IOException {
+                    bytes = toByteArray();
+                    store(MemoryClassFile.this, previous);
+                }
+            };
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            if (bytes == null) {
+                throw new IOException(className + " has not been written");
+            }
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public boolean delete() {
+            return remove(this);
+        }
+    }
+}
@@ -6,10 +6,18 @@ import javax.tools.*;
 import javax.tools.JavaCompiler.CompilationTask;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 /**
@@ -21,13 +29,39 @@ import java.util.stream.Collectors;
  *
  * Note that incoming sources should already be pre-processed, and while it should be safe to directly
  * j2cl the generated classes, it may be necessary to pre-process them before passing them to j2cl.
+ *
+ * Compiled classes are kept in memory, and served from there to later compiles rather than being read back
+ * from the classpath. They are written through to the classesDirFile when their bytes change, unless that
+ * was turned off.
+ *
+ * Each successful compile updates a {@link DependencyGraph} from the class files written for each source,
+ * so callers can work out which other sources to recompile when something changes.
  */
 public class Javac {
 
     List<String> javacOptions;
     JavaCompiler compiler;
     StandardJavaFileManager fileManager;
+    JavaFileManager recordingFileManager;
+
+    private final DependencyGraph dependencyGraph = new DependencyGraph();
+    // class files written by the current task, grouped by the source that produced them
+    private final Map<String, Map<String, JavaFileObject>> outputsBySource = new LinkedHashMap<>();
+    // every class file written so far, grouped by source, so they can be removed when no longer produced
+    private final Map<String, Map<String, JavaFileObject>> classFilesBySource = new HashMap<>();
+    private final Set<String> removedClasses = new TreeSet<>();
+    private final Set<String> apiChangedSources = new TreeSet<>();
+    private boolean constantsChanged;
+
     public Javac(File generatedClassesPath, List<File> classpath, File classesDirFile, File bootstrap) throws IOException {
+        this(generatedClassesPath, classpath, classesDirFile, bootstrap, true);
+    }
+
+    /**
+     * Creates a javac instance that keeps compiled classes in memory between compiles, and only writes them
+     * to classesDirFile if writeClassFiles is true.
+     */
+    public Javac(File generatedClassesPath, List<File> classpath, File classesDirFile, File bootstrap, boolean writeClassFiles) throws IOException {
         javacOptions = Arrays.asList("-implicit:none", "-bootclasspath", bootstrap.toString());
         compiler = ToolProvider.getSystemJavaCompiler();
         fileManager = compiler.getStandardFileManager(null, null, null);
@@ -37,6 +71,17 @@ public class Javac {
         classpath.add(bootstrap);
         fileManager.setLocation(StandardLocation.CLASS_PATH, classpath);
         fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(classesDirFile));
+
+        recordingFileManager = new ForwardingJavaFileManager<JavaFileManager>(new InMemoryClassFileManager(fileManager, classesDirFile, writeClassFiles)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+                JavaFileObject output = super.getJavaFileForOutput(location, className, kind, sibling);
+                if (kind == JavaFileObject.Kind.CLASS && sibling != null) {
+                    outputsBySource.computeIfAbsent(sourceKey(sibling), ignore -> new LinkedHashMap<>()).put(className, output);
+                }
+                return output;
+            }
+        };
     }
 
     public boolean compile(List<FileInfo> modifiedJavaFiles) {
@@ -45,8 +90,115 @@ public class Javac {
         //TODO pass-non null for "classes" to properly kick apt?
         //TODO consider a different classpath for this tasks, so as to not interfere with everything else?
 
-        CompilationTask task = compiler.getTask(null, fileManager, null, javacOptions, null, modifiedFileObjects);
+        outputsBySource.clear();
+        removedClasses.clear();
+        apiChangedSources.clear();
+        constantsChanged = false;
+        CompilationTask task = compiler.getTask(null, recordingFileManager, null, javacOptions, null, modifiedFileObjects);
+
+        if (!task.call()) {
+            return false;
+        }
+
+        // sources that didn't write anything (like package-info.java) still replace what we knew before
+        for (FileInfo modifiedJavaFile : modifiedJavaFiles) {
+            outputsBySource.putIfAbsent(sourceKey(modifiedJavaFile.sourcePath()), Collections.emptyMap());
+        }
+        // a class can move to another source in the same compile, which must keep what it just wrote
+        Set<String> produced = new HashSet<>();
+        for (Map<String, JavaFileObject> classFiles : outputsBySource.values()) {
+            produced.addAll(classFiles.keySet());
+        }
+        try {
+            for (Map.Entry<String, Map<String, JavaFileObject>> entry : outputsBySource.entrySet()) {
+                Map<String, InputStream> classFiles = new HashMap<>();
+                for (Map.Entry<String, JavaFileObject> classFile : entry.getValue().entrySet()) {
+                    classFiles.put(classFile.getKey(), classFile.getValue().openInputStream());
+                }
+                constantsChanged |= dependencyGraph.update(entry.getKey(), classFiles);
+                if (dependencyGraph.isApiChanged(entry.getKey())) {
+                    apiChangedSources.add(entry.getKey());
+                }
+
+                // delete any class that this source used to produce, but no longer does
+                Map<String, JavaFileObject> previous = classFilesBySource.put(entry.getKey(), entry.getValue());
+                if (previous != null) {
+                    for (Map.Entry<String, JavaFileObject> classFile : previous.entrySet()) {
+                        if (!produced.contains(classFile.getKey())) {
+                            classFile.getValue().delete();
+                            removedClasses.add(classFile.getKey());
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read compiled classes", e);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the binary names of classes whose class files were deleted in the last compile, because the
+     * source that used to produce them no longer does.
+     */
+    public Set<String> getRemovedClasses() {
+        return Collections.unmodifiableSet(removedClasses);
+    }
+
+    /**
+     * Returns the sources compiled in the last compile whose api changed (or that are new), so that anything
+     * that can see the change can be compiled too.
+     */
+    public Set<String> getApiChangedSources() {
+        return Collections.unmodifiableSet(apiChangedSources);
+    }
+
+    /**
+     * Deletes the class files produced from a source that no longer exists, and removes it from the dependency
+     * graph. Dependents should be looked up before calling this. Classes that another source now produces,
+     * having moved there, are kept.
+     *
+     * @return the binary names of the classes that were deleted
+     */
+    public Set<String> remove(String source) {
+        dependencyGraph.remove(source);
+        Map<String, JavaFileObject> classFiles = classFilesBySource.remove(source);
+        if (classFiles == null) {
+            return Collections.emptySet();
+        }
+        Set<String> removed = new TreeSet<>(classFiles.keySet());
+        for (Map<String, JavaFileObject> other : classFilesBySource.values()) {
+            removed.removeAll(other.keySet());
+        }
+        for (String className : removed) {
+            classFiles.get(className).delete();
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the dependencies between all sources compiled so far.
+     */
+    public DependencyGraph getDependencyGraph() {
+        return dependencyGraph;
+    }
+
+    /**
+     * Returns true if the last compile changed the value of a compile-time constant. Since javac inlines
+     * these, the graph can't tell which sources used the old value.
+     */
+    public boolean hasChangedConstants() {
+        return constantsChanged;
+    }
+
+    /**
+     * Returns the normalized absolute path used as the key for a source file in the dependency graph.
+     */
+    public static String sourceKey(String sourcePath) {
+        return Paths.get(sourcePath).toAbsolutePath().normalize().toString();
+    }
 
-        return task.call();
+    private static String sourceKey(FileObject source) {
+        return Paths.get(source.toUri()).toAbsolutePath().normalize().toString();
     }
 }
@@ -0,0 +1,291 @@
+package com.vertispan.j2cl.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Writes a BUNDLE style output without running closure: every input needed by the entrypoints, concatenated in
+ * dependency order, with goog.module files wrapped in goog.loadModule. Nothing is transpiled, checked or
+ * optimized, so this is only suitable for development.
+ * <p>
+ * The goog.module/goog.provide/goog.require lines of each input are read once and kept, along with the
+ * contents of each jszip entry, as jszips don't change while running. Js files in the intermediate directory
+ * are only read again when their size or timestamp changes, and the dependency order is only worked out
+ * again when a file is added, removed, or changes what it provides or requires. Files are copied straight
+ * from disk into the bundle.
+ */
+public class JsBundler {
+    private final static Logger LOGGER = Logger.getLogger(JsBundler.class.getName());
+
+    private static final Pattern HEADER = Pattern.compile(
+            "^\\s*(?:(?:const|let|var)\\s+[\\w${},:\\s]+=\\s*)?goog\\.(module|provide|require)\\(\\s*['\"]([^'\"]+)['\"]\\s*\\)",
+            Pattern.MULTILINE);
+
+    private static final String GOOG_PREFIX = "goog:";
+
+    private final List<Input> zipInputs = new ArrayList<>();
+    private final Map<Path, Input> fileInputs = new HashMap<>();
+    private final List<String> entrypoints;
+    private final String prelude;
+
+    // the inputs to write, in order, until something changes the graph
+    private List<Input> order;
+
+    /**
+     * @param jszips the jszips to read inputs from, which are not expected to change
+     * @param entrypoints the namespaces to start from, optionally prefixed with "goog:" as closure allows, or
+     *                    empty to include every input
+     * @param defines closure defines, as name[=value], to set before base.js is loaded
+     */
+    public JsBundler(List<String> jszips, List<String> entrypoints, List<String> defines) throws IOException {
+        this.entrypoints = new ArrayList<>();
+        for (String entrypoint : entrypoints) {
+            // closure treats goog:foo.Bar as the namespace foo.Bar
+            this.entrypoints.add(entrypoint.startsWith(GOOG_PREFIX) ? entrypoint.substring(GOOG_PREFIX.length()) : entrypoint);
+        }
+        this.prelude = prelude(defines);
+        for (String jszip : jszips) {
+            try (ZipFile zipFile = new ZipFile(jszip)) {
+                for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                    if (entry.isDirectory() || !entry.getName().endsWith(".js")) {
+                        continue;
+                    }
+                    try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                        byte[] content = readAll(inputStream, entry.getSize());
+                        zipInputs.add(new Input(jszip + "!/" + entry.getName(), null, content, content.length, 0));
+                    }
+                }
+            }
+        }
+        LOGGER.info("Read " + zipInputs.size() + " js files from " + jszips.size() + " jszips");
+    }
+
+    /**
+     * Brings the inputs from the intermediate directory up to date, and writes the bundle to the output file,
+     * replacing it only once it is complete.
+     *
+     * @return the number of intermediate files that were read again
+     */
+    public int bundle(Path intermediateDir, Path outputFile) throws IOException {
+        int[] changed = new int[1];
+        Set<Path> seen = new HashSet<>();
+        Files.walkFileTree(intermediateDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!file.toString().endsWith(".js")) {
+                    return FileVisitResult.CONTINUE;
+                }
+                seen.add(file);
+                Input existing = fileInputs.get(file);
+                long lastModified = attrs.lastModifiedTime().toMillis();
+                if (existing == null || existing.size != attrs.size() || existing.lastModified != lastModified) {
+                    Input updated = new Input(file.toString(), file, Files.readAllBytes(file), attrs.size(), lastModified);
+                    if (existing == null || !existing.sameHeader(updated)) {
+                        order = null;
+                    }
+                    // keep the contents on disk rather than in memory
+                    updated.content = null;
+                    fileInputs.put(file, updated);
+                    changed[0]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        if (fileInputs.keySet().retainAll(seen)) {
+            order = null;
+        }
+
+        if (order == null) {
+            order = sort();
+        }
+
+        Path outputDir = Files.createDirectories(outputFile.toAbsolutePath().getParent());
+        Path tmp = Files.createTempFile(outputDir, outputFile.getFileName().toString(), ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream stream = Channels.newOutputStream(out);
+            stream.write(prelude.getBytes(StandardCharsets.UTF_8));
+            for (Input input : order) {
+                if (input.module) {
+                    stream.write("goog.loadModule(function(exports) {'use strict';".getBytes(StandardCharsets.UTF_8));
+                }
+                if (input.file != null) {
+                    try (FileChannel in = FileChannel.open(input.file, StandardOpenOption.READ)) {
+                        long position = 0;
+                        long size = in.size();
+                        while (position < size) {
+                            position += in.transferTo(position, size - position, out);
+                        }
+                    }
+                } else {
+                    stream.write(input.content);
+                }
+                stream.write((input.module ? "\n;return exports;});\n" : "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        Files.move(tmp, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return changed[0];
+    }
+
+    /**
+     * Orders the inputs so that each comes after everything it requires, starting with base.js.
+     */
+    private List<Input> sort() {
+        Map<String, Input> byNamespace = new HashMap<>();
+        List<Input> all = new ArrayList<>(zipInputs);
+        all.addAll(fileInputs.values());
+        Input base = null;
+        for (Input input : all) {
+            if (input.base) {
+                base = input;
+            }
+            for (String namespace : input.provides) {
+                Input previous = byNamespace.put(namespace, input);
+                if (previous != null && previous != input) {
+                    LOGGER.warning(namespace + " is provided by both " + previous.name + " and " + input.name + ", using the latter");
+                }
+            }
+        }
+
+        Map<Input, Boolean> visited = new LinkedHashMap<>();
+        if (base != null) {
+            visited.put(base, true);
+        }
+        List<Input> roots = new ArrayList<>();
+        if (entrypoints.isEmpty()) {
+            roots.addAll(all);
+        } else {
+            for (String entrypoint : entrypoints) {
+                Input input = byNamespace.get(entrypoint);
+                if (input == null) {
+                    throw new IllegalStateException("Entrypoint " + entrypoint + " is not provided by any input");
+                }
+                roots.add(input);
+            }
+        }
+        for (Input root : roots) {
+            visit(root, byNamespace, visited);
+        }
+        LOGGER.info("Bundle order worked out for " + visited.size() + " of " + all.size() + " js inputs");
+        return new ArrayList<>(visited.keySet());
+    }
+
+    private static void visit(Input input, Map<String, Input> byNamespace, Map<Input, Boolean> visited) {
+        // iterative, as dependency chains can be deeper than the stack allows
+        List<Input> stack = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        if (visited.containsKey(input)) {
+            return;
+        }
+        visited.put(input, false);
+        stack.add(input);
+        positions.add(0);
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            Input current = stack.get(top);
+            int position = positions.get(top);
+            if (position < current.requires.size()) {
+                positions.set(top, position + 1);
+                Input required = byNamespace.get(current.requires.get(position));
+                if (required == null) {
+                    LOGGER.warning(current.name + " requires " + current.requires.get(position) + ", which no input provides");
+                } else if (!visited.containsKey(required)) {
+                    visited.put(required, false);
+                    stack.add(required);
+                    positions.add(0);
+                }
+                continue;
+            }
+            // everything required has been written, this one can go next
+            stack.remove(top);
+            positions.remove(top);
+            visited.remove(current);
+            visited.put(current, true);
+        }
+    }
+
+    private static String prelude(List<String> defines) {
+        StringBuilder prelude = new StringBuilder("var CLOSURE_NO_DEPS = true;\nvar CLOSURE_UNCOMPILED_DEFINES = {\"goog.ENABLE_DEBUG_LOADER\": false");
+        for (String define : defines) {
+            int equals = define.indexOf('=');
+            String name = equals == -1 ? define : define.substring(0, equals);
+            String value = equals == -1 ? "true" : define.substring(equals + 1);
+            prelude.append(", \"").append(name).append("\": ").append(value);
+        }
+        return prelude.append("};\n").toString();
+    }
+
+    private static byte[] readAll(InputStream inputStream, long size) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size > 0 ? (int) size : 8192);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static class Input {
+        private final String name;
+        private final Path file;
+        private byte[] content;
+        private final long size;
+        private final long lastModified;
+        private final boolean base;
+        private boolean module;
+        private final List<String> provides = new ArrayList<>();
+        private final List<String> requires = new ArrayList<>();
+
+        private Input(String name, Path file, byte[] content, long size, long lastModified) {
+            this.name = name;
+            this.file = file;
+            this.content = content;
+            this.size = size;
+            this.lastModified = lastModified;
+            String source = new String(content, StandardCharsets.UTF_8);
+            this.base = source.contains("@provideGoog");
+            Matcher matcher = HEADER.matcher(source);
+            while (matcher.find()) {
+                switch (matcher.group(1)) {
+                    case "module":
+                        module = true;
+                        provides.add(matcher.group(2));
+                        break;
+                    case "provide":
+                        provides.add(matcher.group(2));
+                        break;
+                    default:
+                        requires.add(matcher.group(2));
+                }
+            }
+        }
+
+        private boolean sameHeader(Input other) {
+            return module == other.module && provides.equals(other.provides) && requires.equals(other.requires);
+        }
+    }
+}
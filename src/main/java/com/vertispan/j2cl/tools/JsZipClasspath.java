@@ -0,0 +1,230 @@
+package com.vertispan.j2cl.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A read-only view of the js in a list of jszips, in classpath order, where the first jszip to provide a path
+ * or a closure namespace hides any later one, the way the first jar on a java classpath hides later copies of
+ * a class. This is what lets a dependency supersource its own types, or one jar replace another's js, without
+ * closure failing on the duplicates.
+ * <p>
+ * The same applies within a single jszip, where the first entry to provide a namespace hides later ones, so a
+ * jar's own plain js (written before its transpiled js) replaces a type it supersources.
+ * <p>
+ * The index is built from each jszip's central directory, so hidden entries are never read. Only plain js
+ * entries that win on their path are read, for their goog.provide/goog.module lines, since the namespace of a
+ * transpiled .java.js file already follows from its path.
+ * <p>
+ * Closure can only be given whole jszips, so each jszip that has hidden entries is replaced by a copy with
+ * just its winning entries, written once per classpath fingerprint, and reused from then on without reading
+ * any of the jszips again.
+ */
+public class JsZipClasspath {
+    private final static Logger LOGGER = Logger.getLogger(JsZipClasspath.class.getName());
+
+    // bump this if what is hidden changes, so copies made by an older version aren't reused
+    public static final String FORMAT = "classpath-2";
+
+    private static final Pattern PROVIDE = Pattern.compile(
+            "^\\s*(?:(?:const|let|var)\\s+[\\w${},:\\s]+=\\s*)?goog\\.(?:module|provide)\\(\\s*['\"]([^'\"]+)['\"]\\s*\\)",
+            Pattern.MULTILINE);
+
+    // path -> the jszip it is read from
+    private final Map<String, String> paths = new HashMap<>();
+    // namespace -> the jszip it is read from
+    private final Map<String, String> namespaces = new HashMap<>();
+    // jszip -> the entries hidden by an earlier jszip, or an earlier entry in the same one
+    private final Map<String, Set<String>> hidden = new LinkedHashMap<>();
+    // jszips with more than one entry at the same path, which need a copy with only the first
+    private final Set<String> duplicated = new HashSet<>();
+
+    /**
+     * Indexes the given jszips, earliest first.
+     */
+    public static JsZipClasspath index(List<String> jszips) throws IOException {
+        JsZipClasspath classpath = new JsZipClasspath();
+        for (String jszip : jszips) {
+            classpath.add(jszip);
+        }
+        return classpath;
+    }
+
+    private void add(String jszip) throws IOException {
+        Set<String> hiddenHere = new HashSet<>();
+        Set<String> seen = new HashSet<>();
+        try (ZipFile zipFile = new ZipFile(jszip)) {
+            for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                String path = entry.getName();
+                if (entry.isDirectory() || !path.endsWith(".js")) {
+                    continue;
+                }
+                if (!seen.add(path)) {
+                    duplicated.add(jszip);
+                    continue;
+                }
+                if (paths.containsKey(path)) {
+                    hiddenHere.add(path);
+                    continue;
+                }
+                List<String> provided = path.endsWith(".java.js") ? Collections.singletonList(transpiledNamespace(path)) : provides(zipFile, entry);
+                if (provided.stream().anyMatch(namespaces::containsKey)) {
+                    // the whole file goes, a later copy of a namespace at a different path
+                    hiddenHere.add(path);
+                    continue;
+                }
+                paths.put(path, jszip);
+                for (String namespace : provided) {
+                    namespaces.putIfAbsent(namespace, jszip);
+                }
+            }
+        }
+        if (!hiddenHere.isEmpty()) {
+            hidden.put(jszip, hiddenHere);
+        }
+    }
+
+    /**
+     * Returns the jszip that provides the given path, or null if none do.
+     */
+    public String getPathProvider(String path) {
+        return paths.get(path);
+    }
+
+    /**
+     * Returns the jszip that provides the given namespace, or null if none do.
+     */
+    public String getNamespaceProvider(String namespace) {
+        return namespaces.get(namespace);
+    }
+
+    /**
+     * Returns the entries of the given jszip that are hidden by an earlier one, or an earlier entry in it.
+     */
+    public Set<String> getHidden(String jszip) {
+        return hidden.getOrDefault(jszip, Collections.emptySet());
+    }
+
+    /**
+     * Returns true if the given jszip has to be replaced by a copy, as it has hidden or duplicate entries.
+     */
+    public boolean needsCopy(String jszip) {
+        return hidden.containsKey(jszip) || duplicated.contains(jszip);
+    }
+
+    /**
+     * Returns the jszips to give closure in place of the given ones, with each that has hidden entries replaced
+     * by a copy without them. The copies and a list of them are kept in the given dir under the classpath's
+     * fingerprint, so the same classpath is only indexed once.
+     *
+     * @param jszips the jszips in classpath order
+     * @param fingerprint identifies the content of the jszips, in order
+     * @param dir where to keep the copies
+     * @param stored true to write the copies with stored entries
+     * @return each given jszip, mapped to the one closure should read instead
+     */
+    public static Map<String, String> resolve(List<String> jszips, String fingerprint, Path dir, boolean stored) throws IOException {
+        Files.createDirectories(dir);
+        Path list = dir.resolve(fingerprint + ".txt");
+        if (Files.exists(list)) {
+            List<String> lines = Files.readAllLines(list, StandardCharsets.UTF_8);
+            if (lines.size() == jszips.size() && lines.stream().allMatch(line -> line.isEmpty() || Files.exists(dir.resolve(line)))) {
+                return resolved(jszips, lines, dir);
+            }
+        }
+
+        JsZipClasspath classpath = index(jszips);
+        List<String> lines = new ArrayList<>();
+        int hiddenCount = 0;
+        for (int i = 0; i < jszips.size(); i++) {
+            String jszip = jszips.get(i);
+            Set<String> hiddenEntries = classpath.getHidden(jszip);
+            if (!classpath.needsCopy(jszip)) {
+                lines.add("");
+                continue;
+            }
+            hiddenCount += hiddenEntries.size();
+            String copy = fingerprint + "-" + i + "-" + Paths.get(jszip).getFileName();
+            try (JsZipWriter writer = new JsZipWriter(dir.resolve(copy), stored);
+                 ZipFile zipFile = new ZipFile(jszip)) {
+                // the writer only keeps the first entry at each path
+                for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                    if (!entry.isDirectory() && !hiddenEntries.contains(entry.getName())) {
+                        try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                            writer.add(entry.getName(), inputStream);
+                        }
+                    }
+                }
+                writer.commit();
+            }
+            lines.add(copy);
+        }
+        LOGGER.info(hiddenCount + " js files in " + classpath.hidden.size() + " of " + jszips.size() + " jszips are hidden by earlier js on the classpath");
+
+        Path tmp = Files.createTempFile(dir, list.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, lines, StandardCharsets.UTF_8);
+            Files.move(tmp, list, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return resolved(jszips, lines, dir);
+    }
+
+    private static Map<String, String> resolved(List<String> jszips, List<String> lines, Path dir) {
+        Map<String, String> resolved = new LinkedHashMap<>();
+        for (int i = 0; i < jszips.size(); i++) {
+            String line = lines.get(i);
+            resolved.put(jszips.get(i), line.isEmpty() ? jszips.get(i) : dir.resolve(line).toString());
+        }
+        return resolved;
+    }
+
+    /**
+     * Returns the namespace j2cl gives the module at the given path, a.b.Foo for a/b/Foo.java.js and
+     * a.b.Foo$impl for a/b/Foo.impl.java.js.
+     */
+    static String transpiledNamespace(String path) {
+        String name = path.substring(0, path.length() - ".java.js".length());
+        if (name.endsWith(".impl")) {
+            name = name.substring(0, name.length() - ".impl".length()) + "$impl";
+        }
+        return name.replace('/', '.');
+    }
+
+    private static List<String> provides(ZipFile zipFile, ZipEntry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream inputStream = zipFile.getInputStream(entry)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+        }
+        List<String> provided = new ArrayList<>();
+        Matcher matcher = PROVIDE.matcher(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        while (matcher.find()) {
+            provided.add(matcher.group(1));
+        }
+        return provided;
+    }
+}
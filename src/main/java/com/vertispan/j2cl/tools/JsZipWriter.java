@@ -0,0 +1,128 @@
+package com.vertispan.j2cl.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a jszip in a single streaming pass, to a temp file next to the target that only replaces it on
+ * {@link #commit()}, so a failed or interrupted build never leaves a partial jszip in the cache.
+ * <p>
+ * Entries can be stored rather than deflated, which makes the jszip larger but lets closure read it without
+ * inflating every file. The first entry added for a path wins, later ones are skipped.
+ */
+public class JsZipWriter implements Closeable {
+    private final Path target;
+    private final Path tmp;
+    private final boolean stored;
+    private final ZipOutputStream out;
+    private final Set<String> names = new HashSet<>();
+    private boolean committed;
+
+    public JsZipWriter(Path target, boolean stored) throws IOException {
+        this.target = target;
+        this.stored = stored;
+        tmp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+        out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16));
+    }
+
+    /**
+     * Adds an entry with the content of the given stream, unless there already is one at that path.
+     *
+     * @return true if it was added
+     */
+    public boolean add(String name, InputStream content) throws IOException {
+        if (names.contains(name)) {
+            return false;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return add(name, bytes.toByteArray());
+    }
+
+    /**
+     * Adds an entry with the given content, unless there already is one at that path.
+     *
+     * @return true if it was added
+     */
+    public boolean add(String name, byte[] content) throws IOException {
+        if (!names.add(name)) {
+            return false;
+        }
+        ZipEntry entry = new ZipEntry(name);
+        if (stored) {
+            // stored entries need their size and crc up front, as there is no data descriptor
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        }
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+        return true;
+    }
+
+    /**
+     * Adds every file under the given dir, at its path relative to the dir, in a stable order.
+     *
+     * @return the number of entries added
+     */
+    public int addDirectory(Path dir) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        int added = 0;
+        for (Path file : files) {
+            String name = dir.relativize(file).toString().replace(File.separatorChar, '/');
+            if (!names.contains(name) && add(name, Files.readAllBytes(file))) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Finishes the jszip and moves it into place.
+     */
+    public void commit() throws IOException {
+        out.close();
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+    }
+
+    /**
+     * Discards the jszip, unless it was committed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            try {
+                out.close();
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+}
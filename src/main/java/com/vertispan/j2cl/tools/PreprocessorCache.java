@@ -0,0 +1,199 @@
+package com.vertispan.j2cl.tools;
+
+import com.google.j2cl.tools.gwtincompatible.JavaPreprocessor;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Bounded cache of preprocessor output, keyed by a digest of the unprocessed source and the version of the
+ * preprocessor, so sources that haven't changed (or were regenerated identically) don't need to be processed
+ * again.
+ * <p>
+ * The least recently used entries are dropped once the cache holds more than the given number of bytes. If a
+ * spill directory is given, every new entry is also written there, and read back on a later miss, so the cache
+ * survives restarts. The spill directory is kept under its own size, removing the files least recently
+ * written or read.
+ */
+public class PreprocessorCache {
+    private final static Logger LOGGER = Logger.getLogger(PreprocessorCache.class.getName());
+
+    private final long maxBytes;
+    private final Path spillDirectory;
+    private final long maxSpillBytes;
+    private final String version;
+
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long spillBytes;
+    private int hits;
+    private int misses;
+
+    /**
+     * @param maxBytes the most preprocessed source to keep in memory
+     * @param spillDirectory directory to write entries to, or null to only keep them in memory
+     * @param maxSpillBytes the most preprocessed source to keep in the spill directory
+     */
+    public PreprocessorCache(long maxBytes, File spillDirectory, long maxSpillBytes) throws IOException {
+        this.maxBytes = maxBytes;
+        this.spillDirectory = spillDirectory == null ? null : spillDirectory.toPath();
+        this.maxSpillBytes = maxSpillBytes;
+        if (this.spillDirectory != null) {
+            Files.createDirectories(this.spillDirectory);
+            trimSpillDirectory();
+        }
+        this.version = preprocessorVersion();
+    }
+
+    /**
+     * Returns the key to use for the given unprocessed source.
+     */
+    public String key(byte[] unprocessed) {
+        byte[] versionBytes = version.getBytes(StandardCharsets.UTF_8);
+        byte[] keyed = new byte[versionBytes.length + 1 + unprocessed.length];
+        System.arraycopy(versionBytes, 0, keyed, 0, versionBytes.length);
+        System.arraycopy(unprocessed, 0, keyed, versionBytes.length + 1, unprocessed.length);
+        return DigestUtils.md5Hex(keyed);
+    }
+
+    /**
+     * Returns the preprocessed source for the key, or null if it isn't in memory or the spill directory.
+     */
+    public synchronized byte[] get(String key) throws IOException {
+        byte[] processed = entries.get(key);
+        if (processed == null && spillDirectory != null) {
+            Path spilled = spillDirectory.resolve(key);
+            if (Files.exists(spilled)) {
+                processed = Files.readAllBytes(spilled);
+                // mark it as used, so it is kept over files that weren't needed
+                Files.setLastModifiedTime(spilled, FileTime.fromMillis(System.currentTimeMillis()));
+                remember(key, processed);
+            }
+        }
+        if (processed == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return processed;
+    }
+
+    /**
+     * Adds newly preprocessed source, writing it through to the spill directory if there is one.
+     */
+    public synchronized void put(String key, byte[] processed) throws IOException {
+        remember(key, processed);
+        spill(key, processed);
+    }
+
+    private void remember(String key, byte[] processed) {
+        byte[] previous = entries.put(key, processed);
+        bytes += processed.length - (previous == null ? 0 : previous.length);
+
+        Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, byte[]> eldest = it.next();
+            it.remove();
+            bytes -= eldest.getValue().length;
+        }
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    private void spill(String key, byte[] processed) throws IOException {
+        if (spillDirectory == null) {
+            return;
+        }
+        Path spilled = spillDirectory.resolve(key);
+        if (Files.exists(spilled)) {
+            return;
+        }
+        Path tmp = Files.createTempFile(spillDirectory, key, ".tmp");
+        Files.write(tmp, processed);
+        Files.move(tmp, spilled, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        spillBytes += processed.length;
+        if (spillBytes > maxSpillBytes) {
+            trimSpillDirectory();
+        }
+    }
+
+    /**
+     * Removes the least recently used spilled files until the directory is back to three quarters of its
+     * bound, so it isn't listed again on each following write. Leftover temp files are removed too.
+     */
+    private void trimSpillDirectory() throws IOException {
+        List<Path> files = new ArrayList<>();
+        Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+        spillBytes = 0;
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(spillDirectory)) {
+            for (Path file : dir) {
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                if (!attrs.isRegularFile()) {
+                    continue;
+                }
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                files.add(file);
+                attributes.put(file, attrs);
+                spillBytes += attrs.size();
+            }
+        }
+        if (spillBytes <= maxSpillBytes) {
+            return;
+        }
+        files.sort(Comparator.comparing(file -> attributes.get(file).lastModifiedTime()));
+        int removed = 0;
+        for (Path file : files) {
+            if (spillBytes <= maxSpillBytes / 4 * 3) {
+                break;
+            }
+            Files.deleteIfExists(file);
+            spillBytes -= attributes.get(file).size();
+            removed++;
+        }
+        LOGGER.info("Removed " + removed + " preprocessed sources from " + spillDirectory + ", keeping it under " + maxSpillBytes + " bytes");
+    }
+
+    /**
+     * Describes the preprocessor on the classpath - snapshots don't change their version, so the size and
+     * timestamp of the jar are included too.
+     */
+    private static String preprocessorVersion() {
+        StringBuilder version = new StringBuilder(String.valueOf(JavaPreprocessor.class.getPackage().getImplementationVersion()));
+        CodeSource codeSource = JavaPreprocessor.class.getProtectionDomain().getCodeSource();
+        if (codeSource != null) {
+            try {
+                File location = new File(codeSource.getLocation().toURI());
+                version.append(':').append(location.length()).append(':').append(location.lastModified());
+            } catch (Exception e) {
+                LOGGER.fine("Unable to find preprocessor jar, only using version " + e);
+            }
+        }
+        return version.toString();
+    }
+}
@@ -0,0 +1,99 @@
+package com.vertispan.j2cl;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.PersistentInputStore;
+import com.vertispan.j2cl.tools.GwtIncompatiblePreprocessor;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InputStoreSnapshotsTest {
+    private Path dir;
+    private Path jszip;
+    private JsZipCache jsZipCache;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("input-snapshots");
+        jszip = dir.resolve("lib.js.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jszip))) {
+            zip.putNextEntry(new ZipEntry("lib/a.js"));
+            zip.write("var a = 1;\n".getBytes());
+            zip.putNextEntry(new ZipEntry("lib/b.js"));
+            zip.write("var b = a + 1;\n".getBytes());
+        }
+        jsZipCache = JsZipCache.open(dir.resolve("cache"), 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        GwtIncompatiblePreprocessor.deleteRecursively(dir);
+    }
+
+    @Test
+    public void savedInputsAreLoadedAndRecompiled() throws Exception {
+        Map<String, String> hashes = Collections.singletonMap(jszip.toString(), "lib");
+
+        PersistentInputStore first = new PersistentInputStore();
+        first.addInput(jszip.toString(), "0");
+        InputStoreSnapshots saving = new InputStoreSnapshots(dir.resolve("inputs"), first, jsZipCache);
+        saving.loadAsync(hashes);
+        assertEquals(0, saving.awaitLoaded());
+        // snapshots are turned off, and no dir is made, unless closure is loaded from a jar
+        Assume.assumeTrue("closure isn't loaded from a jar", Files.isDirectory(dir.resolve("inputs")));
+        String built = compile(first, dir.resolve("first.js"));
+        assertEquals(1, saving.saveUnsaved());
+
+        // a new store, as after a restart, filled from the snapshot before closure runs
+        PersistentInputStore second = new PersistentInputStore();
+        second.addInput(jszip.toString(), "0");
+        InputStoreSnapshots loading = new InputStoreSnapshots(dir.resolve("inputs"), second, jsZipCache);
+        loading.loadAsync(hashes);
+        assertEquals(1, loading.awaitLoaded());
+        assertEquals(built, compile(second, dir.resolve("second.js")));
+        // already saved, nothing left to write
+        assertEquals(0, loading.saveUnsaved());
+    }
+
+    @Test
+    public void missingSnapshotIsNotLoaded() throws Exception {
+        PersistentInputStore store = new PersistentInputStore();
+        store.addInput(jszip.toString(), "0");
+        InputStoreSnapshots snapshots = new InputStoreSnapshots(dir.resolve("inputs"), store, jsZipCache);
+        snapshots.loadAsync(Collections.singletonMap(jszip.toString(), "lib"));
+        assertEquals(0, snapshots.awaitLoaded());
+    }
+
+    /**
+     * Bundles the jszip the way SingleCompiler runs closure, then resets the inputs as it does before saving.
+     */
+    private String compile(PersistentInputStore store, Path output) throws IOException {
+        Compiler compiler = new Compiler(System.err);
+        compiler.setPersistentInputStore(store);
+        SingleCompiler.InProcessJsCompRunner runner = new SingleCompiler.InProcessJsCompRunner(new String[]{
+                "--compilation_level", "BUNDLE",
+                "--jszip", jszip.toString(),
+                "--js_output_file", output.toString()
+        }, compiler);
+        assertTrue(runner.shouldRunCompiler());
+        runner.run();
+        assertFalse(runner.hasErrors());
+        if (compiler.getModules() != null) {
+            compiler.resetCompilerInput();
+        }
+        return new String(Files.readAllBytes(output));
+    }
+}
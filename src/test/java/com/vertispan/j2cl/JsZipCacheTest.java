@@ -0,0 +1,86 @@
+package com.vertispan.j2cl;
+
+import com.vertispan.j2cl.tools.GwtIncompatiblePreprocessor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JsZipCacheTest {
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("jszip-cache");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        GwtIncompatiblePreprocessor.deleteRecursively(dir);
+    }
+
+    @Test
+    public void openingTwiceSharesTheCache() throws IOException {
+        JsZipCache first = JsZipCache.open(dir, 0);
+        JsZipCache second = JsZipCache.open(dir.resolve(".").resolve("..").resolve(dir.getFileName()), 0);
+        assertTrue(first == second);
+    }
+
+    @Test
+    public void concurrentSaves() throws Exception {
+        JsZipCache cache = JsZipCache.open(dir, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> saves = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                Path file = write("file" + i + ".js.zip", 10, 0);
+                saves.add(executor.submit((Callable<Void>) () -> {
+                    cache.accessed(file);
+                    cache.saveAccesses();
+                    return null;
+                }));
+            }
+            for (Future<Void> save : saves) {
+                // throws if two saves overlapped on the index lock
+                save.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(Files.exists(dir.resolve("access.txt")));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        Path usedSinceWritten = write("used.js.zip", 100, 3);
+        Path old = write("old.js.zip", 100, 2);
+        Path recent = write("recent.js.zip", 100, 1);
+        // the oldest file was used just now, by a process that has since exited
+        Files.write(dir.resolve("access.txt"), ("access-1\n" + System.currentTimeMillis() + "\tused.js.zip\n").getBytes());
+
+        JsZipCache.open(dir, 200);
+        assertFalse(Files.exists(old));
+        assertTrue(Files.exists(usedSinceWritten));
+        assertTrue(Files.exists(recent));
+    }
+
+    private Path write(String name, int size, int hoursAgo) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, new byte[size]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - hoursAgo * 3_600_000L));
+        return file;
+    }
+}
@@ -0,0 +1,68 @@
+package com.vertispan.j2cl;
+
+import com.vertispan.j2cl.tools.GwtIncompatiblePreprocessor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RemoteJsZipCacheTest {
+    private Path dir;
+    private RemoteJsZipCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("remote-jszip-cache");
+        JsZipCacheServer server = new JsZipCacheServer();
+        server.dir = dir.resolve("server").toString();
+        try (ServerSocket socket = new ServerSocket(0)) {
+            server.port = socket.getLocalPort();
+        }
+        server.start();
+        cache = new RemoteJsZipCache("http://localhost:" + server.port, "key");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        GwtIncompatiblePreprocessor.deleteRecursively(dir);
+    }
+
+    @Test
+    public void roundtrip() throws IOException {
+        Path built = dir.resolve("built.js.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(built))) {
+            zip.putNextEntry(new ZipEntry("a/A.js"));
+            zip.write("goog.module('a.A');".getBytes());
+        }
+        Path target = dir.resolve("fetched.js.zip");
+        assertFalse(cache.fetch("abc", ".js.zip", target));
+
+        cache.upload("abc", ".js.zip", built);
+        assertTrue(cache.fetch("abc", ".js.zip", target));
+        assertEquals(new String(Files.readAllBytes(built)), new String(Files.readAllBytes(target)));
+    }
+
+    @Test
+    public void invalidZipIsNotUsed() throws IOException {
+        Path broken = dir.resolve("broken.js.zip");
+        try (OutputStream out = Files.newOutputStream(broken)) {
+            out.write("not a zip".getBytes());
+        }
+        cache.upload("abc", ".js.zip", broken);
+
+        Path target = dir.resolve("fetched.js.zip");
+        assertFalse(cache.fetch("abc", ".js.zip", target));
+        assertFalse(Files.exists(target));
+    }
+}
@@ -0,0 +1,200 @@
+package com.vertispan.j2cl.tools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DependencyGraphTest {
+    private Path dir;
+    private DependencyGraph graph;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("dependency-graph");
+        graph = new DependencyGraph();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        GwtIncompatiblePreprocessor.deleteRecursively(dir);
+    }
+
+    @Test
+    public void directReferrer() throws IOException {
+        compile("A", "public class A {}",
+                "B", "public class B { A a; }");
+        assertEquals(set("B"), graph.getDependents(Collections.singleton("A")));
+        assertEquals(set(), graph.getDependents(Collections.singleton("B")));
+    }
+
+    @Test
+    public void referrersOfReferrersAreNotDependents() throws IOException {
+        compile("A", "public class A {}",
+                "B", "public class B { A a; }",
+                "C", "public class C { B b; }");
+        assertEquals(set("B"), graph.getDependents(Collections.singleton("A")));
+        assertEquals(set("B"), graph.getApiDependents(Collections.singleton("A")));
+    }
+
+    @Test
+    public void subclassOfSubclass() throws IOException {
+        compile("A", "public class A { public void m() {} }",
+                "B", "public class B extends A {}",
+                "C", "public class C extends B {}");
+        assertEquals(set("B"), graph.getDependents(Collections.singleton("A")));
+        assertEquals(set("B", "C"), graph.getApiDependents(Collections.singleton("A")));
+    }
+
+    @Test
+    public void callerOfInheritedMember() throws IOException {
+        compile("A", "public class A { public int m() { return 1; } }",
+                "B", "public class B extends A {}",
+                "D", "public class D { int call() { return new B().m(); } }");
+        assertEquals(set("B"), graph.getDependents(Collections.singleton("A")));
+        assertEquals(set("B", "D"), graph.getApiDependents(Collections.singleton("A")));
+    }
+
+    @Test
+    public void cycleTerminates() throws IOException {
+        compile("A", "public class A { B b; }",
+                "B", "public class B extends A {}",
+                "C", "public class C { B b; }");
+        assertEquals(set("B", "C"), graph.getApiDependents(Collections.singleton("A")));
+    }
+
+    @Test
+    public void bodyOnlyEditDoesNotSpread() throws IOException {
+        compile("A", "public class A { public int m() { return 1; } private int p() { return 0; } }",
+                "B", "public class B extends A {}",
+                "D", "public class D { int call() { return new B().m(); } }");
+        assertTrue("new sources count as changed", graph.isApiChanged("A"));
+
+        compile("A", "public class A { public int m() { Runnable r = () -> {}; return 2 + p() + q(); } private int p() { return 1; } private int q() { return 3; } }");
+        assertFalse(graph.isApiChanged("A"));
+        // only the direct referrer is recompiled, nothing widens from an unchanged api
+        assertEquals(set("B"), graph.getDependents(Collections.singleton("A")));
+
+        compile("A", "public class A { public long m() { return 2; } }");
+        assertTrue(graph.isApiChanged("A"));
+        compile("A", "public class A implements java.io.Serializable { public long m() { return 2; } }");
+        assertTrue("supertypes are part of the api", graph.isApiChanged("A"));
+        compile("A", "public class A implements java.io.Serializable { public long m() throws Exception { return 2; } }");
+        assertTrue("checked exceptions are part of the api", graph.isApiChanged("A"));
+    }
+
+    @Test
+    public void givenSourcesAreNotDependents() throws IOException {
+        compile("A", "public class A {}",
+                "B", "public class B { A a; }",
+                "C", "public class C { B b; }");
+        assertEquals(set("C"), graph.getDependents(Arrays.asList("A", "B")));
+    }
+
+    @Test
+    public void genericSignatureReference() throws IOException {
+        compile("Bar", "public class Bar {}",
+                "Holder", "public class Holder { java.util.List<Bar> items; }");
+        assertEquals(set("Holder"), graph.getDependents(Collections.singleton("Bar")));
+    }
+
+    @Test
+    public void nestedClassesBelongToTheirSource() throws IOException {
+        compile("A", "public class A { public static class Inner {} }",
+                "B", "public class B { A.Inner inner; }");
+        assertEquals(set("B"), graph.getDependents(Collections.singleton("A")));
+    }
+
+    @Test
+    public void removedSourceIsNoLongerADependent() throws IOException {
+        compile("A", "public class A {}",
+                "B", "public class B { A a; }",
+                "C", "public class C { B b; }");
+        graph.remove("B");
+        assertEquals(set(), graph.getDependents(Collections.singleton("A")));
+        assertFalse(graph.getSources().contains("B"));
+    }
+
+    @Test
+    public void changedConstants() throws IOException {
+        assertFalse("new sources have nothing to compare to", compile("K", "public class K { public static final int X = 1; }"));
+        assertFalse(compile("K", "public class K { public static final int X = 1; void unrelated() {} }"));
+        assertTrue(compile("K", "public class K { public static final int X = 2; }"));
+        assertTrue(compile("K", "public class K { public static final int X = 2; public static final String S = \"s\"; }"));
+        assertTrue(compile("K", "public class K { public static final int X = 2; public static final String S = \"t\"; }"));
+        // private constants can't be inlined anywhere else
+        assertFalse(compile("K", "public class K { public static final int X = 2; public static final String S = \"t\"; private static final int P = 3; }"));
+    }
+
+    @Test
+    public void notAClassFile() {
+        Map<String, InputStream> classFiles = Collections.singletonMap("A", new ByteArrayInputStream(new byte[]{1, 2, 3, 4}));
+        try {
+            graph.update("A", classFiles);
+            fail("expected an IOException");
+        } catch (IOException expected) {
+            // not a class file
+        }
+    }
+
+    /**
+     * Compiles the given pairs of class name and source, then updates the graph with each source's class files,
+     * using the class name as the source key.
+     *
+     * @return true if any update reported changed constants
+     */
+    private boolean compile(String... namesAndSources) throws IOException {
+        Path src = Files.createTempDirectory(dir, "src");
+        Path out = Files.createTempDirectory(dir, "out");
+        List<String> args = new ArrayList<>(Arrays.asList("-d", out.toString(), "-nowarn"));
+        for (int i = 0; i < namesAndSources.length; i += 2) {
+            Path file = src.resolve(namesAndSources[i] + ".java");
+            Files.write(file, namesAndSources[i + 1].getBytes(StandardCharsets.UTF_8));
+            args.add(file.toString());
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals("javac failed", 0, compiler.run(null, null, null, args.toArray(new String[0])));
+
+        boolean changedConstants = false;
+        for (int i = 0; i < namesAndSources.length; i += 2) {
+            String name = namesAndSources[i];
+            Map<String, InputStream> classFiles = new LinkedHashMap<>();
+            try (Stream<Path> files = Files.list(out)) {
+                for (Path classFile : (Iterable<Path>) files::iterator) {
+                    String fileName = classFile.getFileName().toString();
+                    if (fileName.equals(name + ".class") || fileName.startsWith(name + "$")) {
+                        classFiles.put(fileName.substring(0, fileName.length() - ".class".length()),
+                                new ByteArrayInputStream(Files.readAllBytes(classFile)));
+                    }
+                }
+            }
+            changedConstants |= graph.update(name, classFiles);
+        }
+        return changedConstants;
+    }
+
+    private static HashSet<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+}
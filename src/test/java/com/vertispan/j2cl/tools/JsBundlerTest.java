@@ -0,0 +1,70 @@
+package com.vertispan.j2cl.tools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsBundlerTest {
+    private Path dir;
+    private Path intermediate;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("js-bundler");
+        intermediate = Files.createDirectories(dir.resolve("intermediate/app"));
+        write("Main.js", "goog.module('app.Main');\nconst Dep = goog.require('app.Dep');\n");
+        write("Dep.js", "goog.provide('app.Dep');\n");
+        write("Unused.js", "goog.provide('app.Unused');\n");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        GwtIncompatiblePreprocessor.deleteRecursively(dir);
+    }
+
+    @Test
+    public void entrypointNamespace() throws IOException {
+        String bundle = bundle("app.Main");
+        assertTrue(bundle.contains("goog.provide('app.Dep')"));
+        assertTrue(bundle.contains("goog.module('app.Main')"));
+        assertFalse(bundle.contains("app.Unused"));
+    }
+
+    @Test
+    public void googPrefixedEntrypoint() throws IOException {
+        String bundle = bundle("goog:app.Main");
+        assertTrue(bundle.indexOf("goog.provide('app.Dep')") < bundle.indexOf("goog.module('app.Main')"));
+        assertFalse(bundle.contains("app.Unused"));
+    }
+
+    @Test
+    public void unknownEntrypoint() throws IOException {
+        try {
+            bundle("goog:app.Missing");
+            fail("expected the missing entrypoint to be reported");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains("app.Missing"));
+        }
+    }
+
+    private String bundle(String entrypoint) throws IOException {
+        JsBundler bundler = new JsBundler(Collections.emptyList(), Collections.singletonList(entrypoint), Collections.emptyList());
+        Path output = dir.resolve("out/app.js");
+        bundler.bundle(intermediate.getParent(), output);
+        return new String(Files.readAllBytes(output), StandardCharsets.UTF_8);
+    }
+
+    private void write(String name, String content) throws IOException {
+        Files.write(intermediate.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
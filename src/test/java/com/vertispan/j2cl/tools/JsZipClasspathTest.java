@@ -0,0 +1,103 @@
+package com.vertispan.j2cl.tools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JsZipClasspathTest {
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("jszip-classpath");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        GwtIncompatiblePreprocessor.deleteRecursively(dir);
+    }
+
+    @Test
+    public void earlierPathHidesLaterPath() throws IOException {
+        String first = jszip("first", "a/A.java.js", "goog.module('a.A');");
+        String second = jszip("second", "a/A.java.js", "goog.module('a.A');", "a/B.java.js", "goog.module('a.B');");
+
+        JsZipClasspath classpath = JsZipClasspath.index(Arrays.asList(first, second));
+        assertEquals(first, classpath.getPathProvider("a/A.java.js"));
+        assertEquals(Collections.singleton("a/A.java.js"), classpath.getHidden(second));
+        assertTrue(classpath.getHidden(first).isEmpty());
+    }
+
+    @Test
+    public void transpiledNamespaceHidesLaterPlainJs() throws IOException {
+        String transpiled = jszip("transpiled", "a/A.java.js", "goog.module('a.A');", "a/A.impl.java.js", "goog.module('a.A$impl');");
+        String plain = jszip("plain", "lib/a.js", "goog.provide('a.A');", "lib/impl.js", "goog.module('a.A$impl');");
+
+        JsZipClasspath classpath = JsZipClasspath.index(Arrays.asList(transpiled, plain));
+        assertEquals(transpiled, classpath.getNamespaceProvider("a.A"));
+        assertEquals(transpiled, classpath.getNamespaceProvider("a.A$impl"));
+        assertEquals(set("lib/a.js", "lib/impl.js"), classpath.getHidden(plain));
+    }
+
+    @Test
+    public void supersourceWithinOneJszip() throws IOException {
+        // the jar's own plain js comes first, as handleDependency writes it, and replaces the transpiled type
+        String jszip = jszip("dep", "a/A.js", "goog.module('a.A');", "a/A.java.js", "goog.module('a.A');", "a/B.java.js", "goog.module('a.B');");
+
+        JsZipClasspath classpath = JsZipClasspath.index(Collections.singletonList(jszip));
+        assertEquals(Collections.singleton("a/A.java.js"), classpath.getHidden(jszip));
+        assertNull(classpath.getPathProvider("a/A.java.js"));
+        assertEquals(jszip, classpath.getPathProvider("a/A.js"));
+    }
+
+    @Test
+    public void resolveCopiesOnlyJszipsWithHiddenEntries() throws IOException {
+        String first = jszip("first", "a/A.java.js", "goog.module('a.A');");
+        String second = jszip("second", "a/A.js", "goog.provide('a.A');", "b/B.js", "goog.provide('b.B');");
+
+        Map<String, String> resolved = JsZipClasspath.resolve(Arrays.asList(first, second), "fp", dir.resolve("classpath"), false);
+        assertEquals(first, resolved.get(first));
+        assertFalse(resolved.get(second).equals(second));
+        try (ZipFile copy = new ZipFile(resolved.get(second))) {
+            assertNull(copy.getEntry("a/A.js"));
+            assertTrue(copy.getEntry("b/B.js") != null);
+        }
+        // the same classpath is reused without indexing again
+        assertEquals(resolved, JsZipClasspath.resolve(Arrays.asList(first, second), "fp", dir.resolve("classpath"), false));
+    }
+
+    /**
+     * Writes a jszip with the given entries, as pairs of path and content, in order.
+     */
+    private String jszip(String name, String... entries) throws IOException {
+        Path jszip = dir.resolve(name + ".js.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jszip))) {
+            for (int i = 0; i < entries.length; i += 2) {
+                zip.putNextEntry(new ZipEntry(entries[i]));
+                zip.write(entries[i + 1].getBytes());
+            }
+        }
+        return jszip.toString();
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+}
@@ -0,0 +1,55 @@
+package com.vertispan.j2cl.tools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PreprocessorCacheTest {
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("preprocessor-cache");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        GwtIncompatiblePreprocessor.deleteRecursively(dir);
+    }
+
+    @Test
+    public void entriesSurviveRestartWithoutEviction() throws IOException {
+        PreprocessorCache cache = new PreprocessorCache(1024, dir.toFile(), 1024);
+        String key = cache.key("class A {}".getBytes());
+        cache.put(key, "class A {}".getBytes());
+
+        PreprocessorCache restarted = new PreprocessorCache(1024, dir.toFile(), 1024);
+        assertArrayEquals("class A {}".getBytes(), restarted.get(key));
+        assertEquals(1, restarted.getHits());
+    }
+
+    @Test
+    public void spillDirectoryIsBounded() throws IOException {
+        PreprocessorCache cache = new PreprocessorCache(1024, dir.toFile(), 100);
+        cache.put("old", new byte[40]);
+        Files.setLastModifiedTime(dir.resolve("old"), FileTime.fromMillis(1000));
+        cache.put("used", new byte[40]);
+        Files.setLastModifiedTime(dir.resolve("used"), FileTime.fromMillis(2000));
+        cache.put("new", new byte[30]);
+
+        assertNull(new PreprocessorCache(1024, dir.toFile(), 100).get("old"));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(2, files.count());
+        }
+    }
+}